@@ -0,0 +1,67 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspanov.commons.settings.SettingsStorage;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Conversion of single setting from and to String for each supported type,
+ * by reflection and by generated binder
+ *
+ * @author rspanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"INT", "LONG", "DOUBLE", "BOOLEAN", "STRING", "ENUM",
+        "ATOMIC_INTEGER", "ATOMIC_LONG", "ATOMIC_BOOLEAN"})
+    public String type;
+
+    @Param({"false", "true"})
+    public boolean binder;
+
+    private Object settings;
+
+    private String name;
+
+    private String[] values;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Class<?> cls = GeneratedSettings.compile(10, binder);
+        settings = GeneratedSettings.newInstance(cls);
+        GeneratedSettings.Type fieldType = GeneratedSettings.Type.valueOf(type);
+        name = GeneratedSettings.firstField(cls, fieldType).getName();
+        values = fieldType.samples();
+    }
+
+    @Benchmark
+    public void setSetting() throws SettingsException {
+        // values are alternated, so the field is really changed
+        next = (next + 1) % values.length;
+        SettingsStorage.setSetting(settings, name, values[next]);
+    }
+
+    @Benchmark
+    public String getSetting() throws SettingsException {
+        return SettingsStorage.getSetting(settings, name);
+    }
+}
@@ -0,0 +1,217 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Settings classes of given size for benchmarks. Classes are generated and
+ * compiled at setup, so there are no classes with thousands of fields in
+ * sources. A class is compiled either with the binder processor, or without
+ * it, when its fields are accessed by reflection.
+ *
+ * @author rspanov
+ */
+final class GeneratedSettings {
+
+    private static final String PACKAGE
+            = "org.rspanov.commons.settings.benchmarks.generated";
+
+    private static final String PROCESSOR
+            = "org.rspanov.commons.settings.processor.SettingsBinderProcessor";
+
+    /**
+     * types of setting fields, fields of class use them by turns
+     */
+    enum Type {
+
+        INT("int", "1", "42", "-7"),
+        LONG("long", "1L", "4200000000", "-7"),
+        DOUBLE("double", "1.0", "3.1415", "-2.5E10"),
+        BOOLEAN("boolean", "true", "false", "true"),
+        STRING("String", "\"value\"", "some value", "other value"),
+        ENUM("Level", "Level.LOW", "HIGH", "MEDIUM"),
+        ATOMIC_INTEGER("java.util.concurrent.atomic.AtomicInteger",
+                "new java.util.concurrent.atomic.AtomicInteger(1)", "42", "-7"),
+        ATOMIC_LONG("java.util.concurrent.atomic.AtomicLong",
+                "new java.util.concurrent.atomic.AtomicLong(1L)",
+                "4200000000", "-7"),
+        ATOMIC_BOOLEAN("java.util.concurrent.atomic.AtomicBoolean",
+                "new java.util.concurrent.atomic.AtomicBoolean(true)",
+                "false", "true");
+
+        private final String javaType;
+        private final String initializer;
+        private final String[] samples;
+
+        private Type(String javaType, String initializer, String... samples) {
+            this.javaType = javaType;
+            this.initializer = initializer;
+            this.samples = samples;
+        }
+
+        /**
+         * @return String values which can be set to the field of the type
+         */
+        String[] samples() {
+            return samples.clone();
+        }
+    }
+
+    private GeneratedSettings() {
+    }
+
+    /**
+     * Name of field, names are unique for all class sizes, so classes of
+     * different size can share one storage
+     *
+     * @param size number of fields in class
+     * @param index index of field
+     * @return name of field
+     */
+    static String fieldName(int size, int index) {
+        return "s" + size + "_" + index;
+    }
+
+    /**
+     * @param index index of field
+     * @return type of field
+     */
+    static Type typeOf(int index) {
+        return Type.values()[index % Type.values().length];
+    }
+
+    /**
+     * Generate and compile settings class
+     *
+     * @param size number of setting fields
+     * @param binder compile with binder processor
+     * @return compiled class
+     * @throws IOException if class can't be compiled
+     */
+    static Class<?> compile(int size, boolean binder) throws IOException {
+        String simpleName = "Settings" + size + (binder ? "Bound" : "Reflected");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("benchmarks must be run by JDK");
+        }
+        File dir = File.createTempFile("settings-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("can't create " + dir);
+        }
+        dir.deleteOnExit();
+        List<String> options = new ArrayList<String>(Arrays.asList("-d",
+                dir.getPath(), "-s", dir.getPath(), "-classpath",
+                System.getProperty("java.class.path")));
+        if (binder) {
+            options.addAll(Arrays.asList("-processor", PROCESSOR));
+        } else {
+            options.add("-proc:none");
+        }
+        StringWriter out = new StringWriter();
+        StandardJavaFileManager files = compiler.getStandardFileManager(null,
+                null, null);
+        try {
+            JavaFileObject source = new SourceFile(PACKAGE.replace('.', '/')
+                    + "/" + simpleName, source(simpleName, size));
+            if (!compiler.getTask(out, files, null, options, null,
+                    Arrays.asList(source)).call()) {
+                throw new IOException("can't compile " + simpleName + ": "
+                        + out);
+            }
+        } finally {
+            files.close();
+        }
+        ClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                GeneratedSettings.class.getClassLoader());
+        try {
+            return Class.forName(PACKAGE + "." + simpleName, true, loader);
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException(cnfe);
+        }
+    }
+
+    /**
+     * Create instance of compiled settings class
+     *
+     * @param type compiled class
+     * @return new instance
+     */
+    static Object newInstance(Class<?> type) {
+        try {
+            return type.newInstance();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Find first field of given type
+     *
+     * @param type compiled class
+     * @param fieldType type of field
+     * @return field of class
+     */
+    static Field firstField(Class<?> type, Type fieldType) {
+        String prefix = type.getSimpleName().replaceAll("\\D", "");
+        int size = Integer.parseInt(prefix);
+        for (int i = 0; i < size; i++) {
+            if (typeOf(i) == fieldType) {
+                try {
+                    return type.getDeclaredField(fieldName(size, i));
+                } catch (NoSuchFieldException nsfe) {
+                    throw new IllegalStateException(nsfe);
+                }
+            }
+        }
+        throw new IllegalArgumentException("no field of type " + fieldType);
+    }
+
+    private static String source(String simpleName, int size) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("import org.rspanov.commons.settings.ann.Setting;\n\n");
+        sb.append("public class ").append(simpleName).append(" {\n\n");
+        sb.append("    public enum Level { LOW, MEDIUM, HIGH }\n\n");
+        for (int i = 0; i < size; i++) {
+            Type type = typeOf(i);
+            sb.append("    @Setting(description = \"setting ").append(i)
+                    .append(" of type ").append(type.name().toLowerCase())
+                    .append("\")\n");
+            sb.append("    volatile ").append(type.javaType).append(' ')
+                    .append(fieldName(size, i)).append(" = ")
+                    .append(type.initializer).append(";\n\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /*
+     * source of generated class kept in memory
+     */
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String code;
+
+        private SourceFile(String path, String code) {
+            super(new File(path + Kind.SOURCE.extension).toURI(), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspanov.commons.settings.JdbcSettingsStorage;
+import org.rspanov.commons.settings.MySqlSettingsStorage;
+import org.rspanov.commons.settings.OracleSettingsStorage;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Load and save of settings object by JDBC storage against in-memory H2
+ * database. It shows costs of the storage itself (statements, round trips,
+ * conversions) rather than costs of a real database server. In write-behind
+ * mode save measures the enqueue only.
+ *
+ * @author rspanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcStorageBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean binder;
+
+    @Param({"mysql", "oracle"})
+    public String database;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    private JdbcDataSource dataSource;
+
+    private JdbcSettingsStorage storage;
+
+    private Object settings;
+
+    private List<String> names;
+
+    @Setup
+    public void setUp() throws Exception {
+        settings = GeneratedSettings.newInstance(GeneratedSettings
+                .compile(size, binder));
+        dataSource = new JdbcDataSource();
+        boolean oracle = database.equals("oracle");
+        dataSource.setURL("jdbc:h2:mem:settings-bench;MODE="
+                + (oracle ? "Oracle" : "MySQL")
+                + ";NON_KEYWORDS=VALUE;DB_CLOSE_DELAY=-1");
+        execute("create table SETTINGS (NAME varchar(255) primary key, "
+                + "VALUE varchar(4000), DESCRIPTION varchar(4000))");
+        storage = oracle ? new OracleSettingsStorage(dataSource)
+                : new MySqlSettingsStorage(dataSource);
+        storage.save(settings);
+        storage.setWriteBehind(writeBehind);
+        names = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            names.add(GeneratedSettings.fieldName(size, i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.close();
+        execute("drop table SETTINGS");
+    }
+
+    private void execute(String sql) throws Exception {
+        Connection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.execute(sql);
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Benchmark
+    public Object load() throws SettingsException {
+        storage.load(settings);
+        return settings;
+    }
+
+    @Benchmark
+    public void save() throws SettingsException {
+        storage.save(settings);
+    }
+
+    @Benchmark
+    public Map<String, String> readValues() throws SettingsException {
+        return storage.readValues(names);
+    }
+}
@@ -0,0 +1,96 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspanov.commons.settings.MappedPropertiesParser;
+import org.rspanov.commons.settings.PropertiesParser;
+import org.rspanov.commons.settings.StandardPropertiesParser;
+
+/**
+ * Parsing of .properties file by the parsers of PropertySettingStorage
+ *
+ * @author rspanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"100", "10000", "1000000"})
+    public int keys;
+
+    @Param({"standard", "mapped"})
+    public String parser;
+
+    private PropertiesParser propertiesParser;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        propertiesParser = parser.equals("mapped")
+                ? new MappedPropertiesParser() : new StandardPropertiesParser();
+        file = File.createTempFile("settings-bench", ".properties");
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            w.write("# generated for ParserBenchmark\n");
+            for (int i = 0; i < keys; i++) {
+                // mix of plain values, escapes and continuation lines
+                switch (i % 4) {
+                    case 0:
+                        w.write("setting.plain." + i + "=value of setting "
+                                + i + "\n");
+                        break;
+                    case 1:
+                        w.write("setting.escaped." + i
+                                + " = C:\\\\temp\\\\file\\u00e9\\t" + i + "\n");
+                        break;
+                    case 2:
+                        w.write("setting.multiline." + i + ": first part, \\\n"
+                                + "    second part " + i + "\n");
+                        break;
+                    default:
+                        w.write("! comment line " + i + "\n");
+                        w.write("setting.number." + i + "=" + (i * 31L) + "\n");
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<String, String> parse() throws Exception {
+        Map<String, String> result = new HashMap<String, String>();
+        propertiesParser.parse(file, UTF8, result);
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspanov.commons.settings.PropertySettingStorage;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Load and save of settings object by PropertySettingStorage. Load of
+ * unchanged file and load after the file is changed are measured
+ * separately, as the storage parses the file only when it is changed.
+ *
+ * @author rspanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyStorageBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean binder;
+
+    private File file;
+
+    private PropertySettingStorage storage;
+
+    private Object settings;
+
+    private long stamp;
+
+    @Setup
+    public void setUp() throws Exception {
+        settings = GeneratedSettings.newInstance(GeneratedSettings
+                .compile(size, binder));
+        file = File.createTempFile("settings-bench", ".properties");
+        storage = new PropertySettingStorage(file.getPath());
+        storage.save(settings);
+        stamp = file.lastModified();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public Object load() throws SettingsException {
+        storage.load(settings);
+        return settings;
+    }
+
+    @Benchmark
+    public Object loadChanged() throws SettingsException {
+        // new modification time makes the storage parse the file again
+        stamp += 1000;
+        file.setLastModified(stamp);
+        storage.load(settings);
+        return settings;
+    }
+
+    @Benchmark
+    public void save() throws SettingsException {
+        storage.save(settings);
+    }
+}
@@ -0,0 +1,61 @@
+package org.rspanov.commons.settings.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspanov.commons.settings.SettingListElement;
+import org.rspanov.commons.settings.SettingsStorage;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Getting and setting of all settings of object as list, as it is done by
+ * settings editors
+ *
+ * @author rspanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsListBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean binder;
+
+    private Object settings;
+
+    private List<SettingListElement> list;
+
+    @Setup
+    public void setUp() throws Exception {
+        settings = GeneratedSettings.newInstance(GeneratedSettings
+                .compile(size, binder));
+        list = SettingsStorage.getSettingsList(settings);
+    }
+
+    @Benchmark
+    public List<SettingListElement> getSettingsList()
+            throws SettingsException {
+        return SettingsStorage.getSettingsList(settings);
+    }
+
+    @Benchmark
+    public void setSettingsList() throws SettingsException {
+        SettingsStorage.setSettingsList(settings, list);
+    }
+}
@@ -0,0 +1,406 @@
+package org.rspanov.commons.settings.processor;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates SettingsBinder for each class with fields annotated with
+ * {@code @Setting}. Binder reads and writes fields directly, so they are
+ * loaded without reflection. Fields which can't be accessed from the
+ * package of class (private, final) or have unsupported types are not
+ * included into binder and are left to reflection. Handles IntSetting,
+ * LongSetting, DoubleSetting and BooleanSetting are bound even if the field
+ * is final, as they are updated in place. RefSetting is always left to
+ * reflection: type of its value is known only at runtime.
+ *
+ * All classes with fields annotated with {@code @Setting} are listed in
+ * index file META-INF/rsp-commons-settings/settings.index, which is read
+ * by SettingsStorage.loadAll.
+ *
+ * @author rspanov
+ */
+@SupportedAnnotationTypes(SettingsBinderProcessor.SETTING_ANNOTATION)
+public class SettingsBinderProcessor extends AbstractProcessor {
+
+    static final String SETTING_ANNOTATION
+            = "org.rspanov.commons.settings.ann.Setting";
+
+    private static final String BINDER_INTERFACE
+            = "org.rspanov.commons.settings.SettingsBinder";
+
+    private static final String BINDER_SUFFIX = "_SettingsBinder";
+
+    private static final String HANDLE_PACKAGE = "org.rspanov.commons.settings.";
+
+    /**
+     * see SettingsIndex.RESOURCE
+     */
+    static final String INDEX_RESOURCE
+            = "META-INF/rsp-commons-settings/settings.index";
+
+    /**
+     * binary names of classes with settings found by all rounds
+     */
+    private final Set<String> indexed = new TreeSet<String>();
+
+    /**
+     * conversion of String value to supported field type,
+     * %s is replaced by value expression
+     */
+    private enum Kind {
+
+        INT("Integer.parseInt(%s)"),
+        LONG("Long.parseLong(%s)"),
+        DOUBLE("Double.parseDouble(%s)"),
+        BOOLEAN("Boolean.parseBoolean(%s)"),
+        STRING("%s"),
+        ENUM(null),
+        ATOMIC_BOOLEAN("Boolean.parseBoolean(%s)"),
+        ATOMIC_LONG("Long.parseLong(%s)"),
+        ATOMIC_INTEGER("Integer.parseInt(%s)"),
+        INT_SETTING("Integer.parseInt(%s)"),
+        LONG_SETTING("Long.parseLong(%s)"),
+        DOUBLE_SETTING("Double.parseDouble(%s)"),
+        BOOLEAN_SETTING("Boolean.parseBoolean(%s)");
+
+        private final String parse;
+
+        private Kind(String parse) {
+            this.parse = parse;
+        }
+
+        private boolean isAtomic() {
+            return this == ATOMIC_BOOLEAN || this == ATOMIC_LONG
+                    || this == ATOMIC_INTEGER;
+        }
+
+        /*
+         * handles are updated in place, so they may be final fields
+         */
+        private boolean isHandle() {
+            return this == INT_SETTING || this == LONG_SETTING
+                    || this == DOUBLE_SETTING || this == BOOLEAN_SETTING;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!indexed.isEmpty()) {
+                writeIndex();
+            }
+            return false;
+        }
+        TypeElement setting = processingEnv.getElementUtils()
+                .getTypeElement(SETTING_ANNOTATION);
+        if (setting == null) {
+            return false;
+        }
+        Map<TypeElement, List<VariableElement>> classes
+                = new LinkedHashMap<TypeElement, List<VariableElement>>();
+        for (Element e : roundEnv.getElementsAnnotatedWith(setting)) {
+            if (e.getKind() != ElementKind.FIELD
+                    || !(e.getEnclosingElement() instanceof TypeElement)) {
+                continue;
+            }
+            TypeElement type = (TypeElement) e.getEnclosingElement();
+            List<VariableElement> fields = classes.get(type);
+            if (fields == null) {
+                fields = new ArrayList<VariableElement>();
+                classes.put(type, fields);
+            }
+            fields.add((VariableElement) e);
+        }
+        for (Map.Entry<TypeElement, List<VariableElement>> e
+                : classes.entrySet()) {
+            indexed.add(processingEnv.getElementUtils().getBinaryName(
+                    e.getKey()).toString());
+            if (isAccessible(e.getKey())) {
+                generate(e.getKey(), e.getValue());
+            }
+        }
+        return false;
+    }
+
+    /*
+     * classes of index written by previous compilation are kept if they
+     * still exist, so incremental compilation does not lose them
+     */
+    private void writeIndex() {
+        try {
+            FileObject old = processingEnv.getFiler().getResource(
+                    StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            BufferedReader reader = new BufferedReader(
+                    old.openReader(true));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")
+                            && processingEnv.getElementUtils().getTypeElement(
+                                    line.replace('$', '.')) != null) {
+                        indexed.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException fnfe) {
+            // first compilation
+        } catch (NoSuchFileException nsfe) {
+            // first compilation
+        } catch (IOException ioe) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.NOTE, "previous settings index is not "
+                    + "read: " + ioe.getMessage());
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            Writer w = file.openWriter();
+            try {
+                w.write("# Generated by " + SettingsBinderProcessor.class
+                        .getName() + ", do not edit\n");
+                for (String name : indexed) {
+                    w.write(name + "\n");
+                }
+            } finally {
+                w.close();
+            }
+        } catch (IOException ioe) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "settings index can't be written: " + ioe.getMessage());
+        }
+    }
+
+    /*
+     * class and all its enclosing classes must be visible in package
+     */
+    private static boolean isAccessible(TypeElement type) {
+        Element e = type;
+        while (e instanceof TypeElement) {
+            TypeElement te = (TypeElement) e;
+            NestingKind nesting = te.getNestingKind();
+            if (te.getModifiers().contains(Modifier.PRIVATE)
+                    || nesting == NestingKind.LOCAL
+                    || nesting == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            e = e.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /*
+     * qualified name of declared type of field
+     */
+    private static String typeName(VariableElement field) {
+        return ((TypeElement) ((DeclaredType) field.asType()).asElement())
+                .getQualifiedName().toString();
+    }
+
+    private Kind kindOf(VariableElement field) {
+        TypeMirror t = field.asType();
+        switch (t.getKind()) {
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case DECLARED:
+                TypeElement te = (TypeElement) ((DeclaredType) t).asElement();
+                if (te.getKind() == ElementKind.ENUM) {
+                    return Kind.ENUM;
+                }
+                String name = te.getQualifiedName().toString();
+                if (name.equals("java.lang.String")) {
+                    return Kind.STRING;
+                } else if (name.equals(
+                        "java.util.concurrent.atomic.AtomicBoolean")) {
+                    return Kind.ATOMIC_BOOLEAN;
+                } else if (name.equals(
+                        "java.util.concurrent.atomic.AtomicLong")) {
+                    return Kind.ATOMIC_LONG;
+                } else if (name.equals(
+                        "java.util.concurrent.atomic.AtomicInteger")) {
+                    return Kind.ATOMIC_INTEGER;
+                } else if (name.equals(HANDLE_PACKAGE + "IntSetting")) {
+                    return Kind.INT_SETTING;
+                } else if (name.equals(HANDLE_PACKAGE + "LongSetting")) {
+                    return Kind.LONG_SETTING;
+                } else if (name.equals(HANDLE_PACKAGE + "DoubleSetting")) {
+                    return Kind.DOUBLE_SETTING;
+                } else if (name.equals(HANDLE_PACKAGE + "BooleanSetting")) {
+                    return Kind.BOOLEAN_SETTING;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private void generate(TypeElement type, List<VariableElement> annotated) {
+        List<VariableElement> fields = new ArrayList<VariableElement>();
+        List<Kind> kinds = new ArrayList<Kind>();
+        for (VariableElement field : annotated) {
+            Set<Modifier> mods = field.getModifiers();
+            Kind kind = kindOf(field);
+            if (kind == null || mods.contains(Modifier.PRIVATE)
+                    || (mods.contains(Modifier.FINAL) && !kind.isHandle())) {
+                continue;
+            }
+            fields.add(field);
+            kinds.add(kind);
+        }
+        if (fields.isEmpty()) {
+            return;
+        }
+        String pkg = processingEnv.getElementUtils().getPackageOf(type)
+                .getQualifiedName().toString();
+        String binary = processingEnv.getElementUtils().getBinaryName(type)
+                .toString();
+        // see SettingsBinder for naming
+        String binderName = binary.replace("$", "$$") + BINDER_SUFFIX;
+        String simpleName = pkg.isEmpty() ? binderName
+                : binderName.substring(pkg.length() + 1);
+        String typeName = type.getQualifiedName().toString();
+        try {
+            JavaFileObject file = processingEnv.getFiler()
+                    .createSourceFile(binderName, type);
+            Writer w = file.openWriter();
+            try {
+                write(w, pkg, simpleName, typeName, fields, kinds);
+            } finally {
+                w.close();
+            }
+        } catch (IOException ioe) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "binder can't be generated: " + ioe.getMessage(), type);
+        }
+    }
+
+    private static String ref(String typeName, VariableElement field) {
+        if (field.getModifiers().contains(Modifier.STATIC)) {
+            return typeName + "." + field.getSimpleName();
+        }
+        return "((" + typeName + ") o)." + field.getSimpleName();
+    }
+
+    private static void write(Writer w, String pkg, String simpleName,
+            String typeName, List<VariableElement> fields, List<Kind> kinds)
+            throws IOException {
+        if (!pkg.isEmpty()) {
+            w.write("package " + pkg + ";\n\n");
+        }
+        w.write("/**\n * Generated by " + SettingsBinderProcessor.class
+                .getName() + " for " + typeName + ", do not edit\n */\n");
+        w.write("public final class " + simpleName + " implements "
+                + BINDER_INTERFACE + " {\n\n");
+        w.write("    private static final String[] NAMES = {");
+        for (int i = 0; i < fields.size(); i++) {
+            w.write((i == 0 ? "\"" : ", \"") + fields.get(i).getSimpleName()
+                    + "\"");
+        }
+        w.write("};\n\n");
+        w.write("    @Override\n    public String[] names() {\n"
+                + "        return NAMES.clone();\n    }\n\n");
+
+        w.write("    @Override\n    public void set(int index, Object o, "
+                + "String value) throws Exception {\n"
+                + "        switch (index) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            VariableElement field = fields.get(i);
+            Kind kind = kinds.get(i);
+            String ref = ref(typeName, field);
+            w.write("            case " + i + ": {\n");
+            if (kind.isAtomic()) {
+                String atomic = typeName(field);
+                w.write("                " + atomic + " current = " + ref
+                        + ";\n");
+                w.write("                if (value == null) {\n");
+                w.write("                    " + ref + " = null;\n");
+                w.write("                } else if (current == null) {\n");
+                w.write("                    " + ref + " = new " + atomic + "("
+                        + String.format(kind.parse, "value") + ");\n");
+                w.write("                } else {\n");
+                w.write("                    current.set("
+                        + String.format(kind.parse, "value") + ");\n");
+                w.write("                }\n");
+            } else if (kind.isHandle()) {
+                String handle = typeName(field);
+                w.write("                " + handle + " current = " + ref
+                        + ";\n");
+                w.write("                if (current != null) {\n");
+                w.write("                    current.set("
+                        + String.format(kind.parse, "value") + ");\n");
+                if (field.getModifiers().contains(Modifier.FINAL)) {
+                    w.write("                } else {\n");
+                    w.write("                    throw new IllegalStateException("
+                            + "\"field " + field.getSimpleName()
+                            + " is not initialized\");\n");
+                } else {
+                    w.write("                } else {\n");
+                    w.write("                    " + ref + " = new " + handle
+                            + "(" + String.format(kind.parse, "value")
+                            + ");\n");
+                }
+                w.write("                }\n");
+            } else if (kind == Kind.ENUM) {
+                String enumType = typeName(field);
+                w.write("                " + ref + " = Enum.valueOf("
+                        + enumType + ".class, value);\n");
+            } else {
+                w.write("                " + ref + " = "
+                        + String.format(kind.parse, "value") + ";\n");
+            }
+            w.write("                return;\n            }\n");
+        }
+        w.write("            default:\n"
+                + "                throw new IndexOutOfBoundsException("
+                + "String.valueOf(index));\n        }\n    }\n\n");
+
+        w.write("    @Override\n    public Object get(int index, Object o) {\n"
+                + "        switch (index) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            w.write("            case " + i + ":\n                return "
+                    + ref(typeName, fields.get(i)) + ";\n");
+        }
+        w.write("            default:\n"
+                + "                throw new IndexOutOfBoundsException("
+                + "String.valueOf(index));\n        }\n    }\n}\n");
+    }
+}
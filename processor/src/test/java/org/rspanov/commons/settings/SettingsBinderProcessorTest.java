@@ -0,0 +1,267 @@
+package org.rspanov.commons.settings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.processor.SettingsBinderProcessor;
+
+/**
+ * Compiles sample classes with the processor and loads generated binders
+ * and index as SettingsStorage does. It is in the package of storage to
+ * reach SettingsClassModel.
+ *
+ * @author rspanov
+ */
+public class SettingsBinderProcessorTest {
+
+	private static final String SAMPLE = "package sample;\n"
+			+ "import java.util.concurrent.TimeUnit;\n"
+			+ "import java.util.concurrent.atomic.AtomicLong;\n"
+			+ "import org.rspanov.commons.settings.IntSetting;\n"
+			+ "import org.rspanov.commons.settings.RefSetting;\n"
+			+ "import org.rspanov.commons.settings.ann.Setting;\n"
+			+ "public class CompiledSettings {\n"
+			+ "  @Setting(description = \"int\") int sampleInt = 1;\n"
+			+ "  @Setting(description = \"enum\") TimeUnit unit"
+			+ " = TimeUnit.SECONDS;\n"
+			+ "  @Setting(description = \"atomic\") AtomicLong atomic"
+			+ " = new AtomicLong(2);\n"
+			+ "  @Setting(description = \"handle\") final IntSetting handle"
+			+ " = new IntSetting(3);\n"
+			+ "  @Setting(description = \"ref\") final RefSetting<String> ref"
+			+ " = new RefSetting<String>(String.class, \"r\");\n"
+			+ "  @Setting(description = \"private\") private String hidden"
+			+ " = \"h\";\n"
+			+ "  @Setting(description = \"static\") static String staticValue"
+			+ " = \"s\";\n"
+			+ "  public static class Nested {\n"
+			+ "    @Setting(description = \"nested\") long nestedLong;\n"
+			+ "  }\n"
+			+ "}\n";
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("processor", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void write(File file, String content) throws Exception {
+		file.getParentFile().mkdirs();
+		Writer w = new OutputStreamWriter(new FileOutputStream(file),
+				StandardCharsets.UTF_8);
+		try {
+			w.write(content);
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Compile sources with the processor into classes directory, classes
+	 * compiled before are on class path
+	 */
+	static void compile(File classes, File generated, File... sources)
+			throws Exception {
+		classes.mkdirs();
+		generated.mkdirs();
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics
+				= new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager files = compiler.getStandardFileManager(
+				diagnostics, null, StandardCharsets.UTF_8);
+		try {
+			List<String> options = Arrays.asList(
+					"-classpath", System.getProperty("java.class.path")
+					+ File.pathSeparator + classes.getPath(),
+					"-d", classes.getPath(), "-s", generated.getPath());
+			JavaCompiler.CompilationTask task = compiler.getTask(null, files,
+					diagnostics, options, null,
+					files.getJavaFileObjects(sources));
+			task.setProcessors(Collections.singletonList(
+					new SettingsBinderProcessor()));
+			assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+		} finally {
+			files.close();
+		}
+	}
+
+	@Test
+	public void testGeneratedBinder() throws Exception {
+		File source = new File(dir, "src/sample/CompiledSettings.java");
+		write(source, SAMPLE);
+		File classes = new File(dir, "classes");
+		File generated = new File(dir, "generated");
+		// its binder must not clash with binder of CompiledSettings$Nested
+		File flat = source("CompiledSettings_Nested",
+				"  @Setting(description = \"flat\") int flat;\n");
+		compile(classes, generated, source, flat);
+		assertTrue(new File(generated,
+				"sample/CompiledSettings_SettingsBinder.java").isFile());
+		assertTrue(new File(generated,
+				"sample/CompiledSettings$$Nested_SettingsBinder.java").isFile());
+		assertTrue(new File(generated,
+				"sample/CompiledSettings_Nested_SettingsBinder.java").isFile());
+
+		URLClassLoader loader = new URLClassLoader(
+				new URL[]{classes.toURI().toURL()},
+				getClass().getClassLoader());
+		try {
+			Class<?> type = loader.loadClass("sample.CompiledSettings");
+			SettingsBinder binder = SettingsClassModel.loadBinder(type);
+			assertNotNull(binder);
+			// private field and RefSetting are left to reflection
+			assertEquals(new HashSet<String>(Arrays.asList("sampleInt",
+					"unit", "atomic", "handle", "staticValue")),
+					new HashSet<String>(Arrays.asList(binder.names())));
+			assertEquals(Arrays.asList("nestedLong"), Arrays.asList(
+					SettingsClassModel.loadBinder(loader.loadClass(
+							"sample.CompiledSettings$Nested")).names()));
+			assertEquals(Arrays.asList("flat"), Arrays.asList(
+					SettingsClassModel.loadBinder(loader.loadClass(
+							"sample.CompiledSettings_Nested")).names()));
+
+			Object o = type.getDeclaredConstructor().newInstance();
+			List<String> names = Arrays.asList(binder.names());
+			binder.set(names.indexOf("sampleInt"), o, "5");
+			binder.set(names.indexOf("unit"), o, "MINUTES");
+			binder.set(names.indexOf("atomic"), o, "6");
+			binder.set(names.indexOf("handle"), o, "7");
+			binder.set(names.indexOf("staticValue"), null, "t");
+			assertEquals("5", SettingsStorage.getSetting(o, "sampleInt"));
+			assertEquals("MINUTES", SettingsStorage.getSetting(o, "unit"));
+			assertEquals("6", SettingsStorage.getSetting(o, "atomic"));
+			assertEquals("7", SettingsStorage.getSetting(o, "handle"));
+			assertEquals("t", SettingsStorage.getSetting(type, "staticValue"));
+
+			// the same object is updated in place by binder and storage
+			Object handle = binder.get(names.indexOf("handle"), o);
+			SettingsStorage.setSetting(o, "handle", "8");
+			assertEquals(8, ((IntSetting) handle).get());
+			SettingsStorage.setSetting(o, "ref", "q");
+			assertEquals("q", SettingsStorage.getSetting(o, "ref"));
+			SettingsStorage.setSetting(o, "hidden", "x");
+			assertEquals("x", SettingsStorage.getSetting(o, "hidden"));
+		} finally {
+			loader.close();
+		}
+	}
+
+	private File source(String name, String body) throws Exception {
+		File file = new File(dir, "src/sample/" + name + ".java");
+		write(file, "package sample;\n"
+				+ "import org.rspanov.commons.settings.ann.Setting;\n"
+				+ "public class " + name + " {\n" + body + "}\n");
+		return file;
+	}
+
+	/*
+	 * class names listed in index, without comments
+	 */
+	private static List<String> readIndex(File classes) throws Exception {
+		List<String> names = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(classes, SettingsIndex.RESOURCE)),
+				StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("#")) {
+					names.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return names;
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+		File classes = new File(dir, "classes");
+		File generated = new File(dir, "generated");
+		compile(classes, generated,
+				source("Alpha", "  @Setting(description = \"alpha\")"
+						+ " static int alphaPort = 1;\n"),
+				source("Beta", "  @Setting(description = \"beta\")"
+						+ " String betaName = \"b\";\n"));
+		assertEquals(Arrays.asList("sample.Alpha", "sample.Beta"),
+				readIndex(classes));
+
+		// incremental compilation keeps classes indexed before
+		compile(classes, generated,
+				source("Gamma", "  public static class Nested {\n"
+						+ "    @Setting(description = \"gamma\")"
+						+ " static long gammaTimeout = 3;\n  }\n"));
+		assertEquals(Arrays.asList("sample.Alpha", "sample.Beta",
+				"sample.Gamma$Nested"), readIndex(classes));
+
+		// but not removed ones
+		assertTrue(new File(classes, "sample/Alpha.class").delete());
+		compile(classes, generated,
+				source("Delta", "  @Setting(description = \"delta\")"
+						+ " static String deltaHost = \"d\";\n"));
+		assertEquals(Arrays.asList("sample.Beta", "sample.Delta",
+				"sample.Gamma$Nested"), readIndex(classes));
+
+		URLClassLoader loader = new URLClassLoader(
+				new URL[]{classes.toURI().toURL()},
+				getClass().getClassLoader());
+		try {
+			MemorySettingsStorage storage = new MemorySettingsStorage();
+			storage.put("deltaHost", "remote");
+			storage.put("gammaTimeout", "7");
+			List<Class<?>> loaded = storage.loadAll(loader);
+			// Beta has instance settings only
+			assertEquals(Arrays.<Class<?>>asList(
+					loader.loadClass("sample.Delta"),
+					loader.loadClass("sample.Gamma$Nested")), loaded);
+			assertEquals("remote", SettingsStorage.getSetting(loaded.get(0),
+					"deltaHost"));
+			assertEquals("7", SettingsStorage.getSetting(loaded.get(1),
+					"gammaTimeout"));
+		} finally {
+			loader.close();
+		}
+	}
+}
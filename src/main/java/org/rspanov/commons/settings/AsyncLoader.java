@@ -0,0 +1,268 @@
+package org.rspanov.commons.settings;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Loads classes and instances of storage by executors. Number of loads
+ * running at once is limited per storage, the rest wait in the queue of
+ * loader, not in threads of executor, so executors shared with other work
+ * are never blocked by it.
+ *
+ * @author rspanov
+ */
+final class AsyncLoader {
+
+    /**
+     * load of one class or instance
+     */
+    private static final class Task {
+
+        private final Object target;
+        private final Executor executor;
+        private final Batch batch;
+
+        /**
+         * thread running the load, guarded by task
+         */
+        private Thread runner;
+
+        private Task(Object target, Executor executor, Batch batch) {
+            this.target = target;
+            this.executor = executor;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Result of loads started together. It is done when all loads are
+     * finished, failures of all loads are reported by one exception.
+     */
+    static final class Batch implements Future<Void> {
+
+        private final AsyncLoader loader;
+        private final List<Task> tasks;
+        private final int size;
+        private final CountDownLatch done;
+        private final List<SettingsException> failures
+                = new ArrayList<SettingsException>();
+        private volatile boolean cancelled;
+
+        private Batch(AsyncLoader loader, int size) {
+            this.loader = loader;
+            this.tasks = new ArrayList<Task>(size);
+            this.size = size;
+            this.done = new CountDownLatch(size);
+        }
+
+        private void finished(SettingsException failure) {
+            if (failure != null) {
+                synchronized (failures) {
+                    failures.add(failure);
+                }
+            }
+            done.countDown();
+        }
+
+        /**
+         * Loads not started yet are removed from the queue, running ones are
+         * interrupted if it is allowed, otherwise they are finished. Batch
+         * is done at once.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (cancelled || done.getCount() == 0) {
+                    return false;
+                }
+                cancelled = true;
+            }
+            loader.dequeue(this);
+            if (mayInterruptIfRunning) {
+                for (Task task : tasks) {
+                    synchronized (task) {
+                        if (task.runner != null) {
+                            task.runner.interrupt();
+                        }
+                    }
+                }
+            }
+            // release waiting threads, loads finished later are ignored
+            while (done.getCount() > 0) {
+                done.countDown();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || done.getCount() == 0;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private Void result() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            synchronized (failures) {
+                if (failures.isEmpty()) {
+                    return null;
+                }
+                if (size == 1) {
+                    throw new ExecutionException(failures.get(0));
+                }
+                SettingsException se = new SettingsException(failures.size()
+                        + " of " + size + " settings targets are not loaded",
+                        failures.get(0));
+                for (int i = 1; i < failures.size(); i++) {
+                    se.addSuppressed(failures.get(i));
+                }
+                throw new ExecutionException(se);
+            }
+        }
+    }
+
+    private final SettingsStorage storage;
+
+    private final Queue<Task> queue = new ArrayDeque<Task>();
+
+    private int running;
+
+    AsyncLoader(SettingsStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Start loading of classes or instances
+     *
+     * @param targets classes with static settings or instances
+     * @param executor executor to run loads
+     * @return result of loads
+     */
+    Batch load(List<?> targets, Executor executor) {
+        Batch batch = new Batch(this, targets.size());
+        for (Object target : targets) {
+            batch.tasks.add(new Task(target, executor, batch));
+        }
+        synchronized (this) {
+            queue.addAll(batch.tasks);
+        }
+        startNext();
+        return batch;
+    }
+
+    /*
+     * start queued loads while limit allows
+     */
+    private void startNext() {
+        while (true) {
+            final Task task;
+            synchronized (this) {
+                if (running >= storage.getMaxParallelLoads()
+                        || queue.isEmpty()) {
+                    return;
+                }
+                task = queue.poll();
+                running++;
+            }
+            if (task.batch.isCancelled()) {
+                task.batch.finished(null);
+                finished();
+                continue;
+            }
+            try {
+                task.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask(task);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                task.batch.finished(new SettingsException(
+                        "load of settings is rejected by executor", ree));
+                finished();
+            }
+        }
+    }
+
+    private synchronized void finished() {
+        running--;
+    }
+
+    /*
+     * remove loads of cancelled batch from the queue
+     */
+    private synchronized void dequeue(Batch batch) {
+        Iterator<Task> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().batch == batch) {
+                it.remove();
+            }
+        }
+    }
+
+    private void runTask(Task task) {
+        SettingsException failure = null;
+        try {
+            synchronized (task) {
+                if (task.batch.isCancelled()) {
+                    return;
+                }
+                task.runner = Thread.currentThread();
+            }
+            if (task.target instanceof Class) {
+                storage.load((Class<?>) task.target);
+            } else {
+                storage.load(task.target);
+            }
+        } catch (SettingsException se) {
+            failure = se;
+        } catch (RuntimeException re) {
+            failure = new SettingsException(re);
+        } finally {
+            synchronized (task) {
+                task.runner = null;
+                if (task.batch.isCancelled()) {
+                    // interrupt by cancel must not reach the next task of
+                    // this thread, no one interrupts it after runner is null
+                    Thread.interrupted();
+                }
+            }
+            finished();
+            task.batch.finished(failure);
+            startNext();
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through caching decorator for any settings storage.
+ *
+ * Values of settings are kept in memory in String representation.
+ * An entry older than refresh interval is still used, but it is reloaded
+ * from the wrapped storage in background (refresh-ahead). An entry older
+ * than TTL is reloaded synchronously. So after warm-up settings which are
+ * used often never wait for the data source.
+ *
+ * Saving is write-through: values are saved into wrapped storage and
+ * then put into the cache.
+ *
+ * @author rspanov
+ */
+public class CachingSettingsStorage extends SettingsStorage {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(CachingSettingsStorage.class);
+
+    /**
+     * cached value of setting
+     */
+    private static final class CachedValue {
+
+        private final String value;
+        private final long loadedAt;
+
+        private CachedValue(String value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /*
+     * shared executor for background refresh, created on first use
+     */
+    private static final class DefaultExecutor {
+
+        private static final ExecutorService INSTANCE = Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "settings-cache-refresh");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    private final SettingsStorage storage;
+
+    private final Executor executor;
+
+    private final ConcurrentMap<String, CachedValue> cache
+            = new ConcurrentHashMap<String, CachedValue>();
+
+    private final Set<String> refreshing = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+
+    /**
+     * max age of cached value, older values are reloaded synchronously
+     */
+    private volatile long ttlNanos;
+
+    /**
+     * age of cached value after which it is reloaded in background
+     */
+    private volatile long refreshAfterNanos;
+
+    /**
+     * Create caching storage refreshing values by shared daemon thread
+     *
+     * @param storage wrapped storage
+     * @param ttl max age of cached value
+     * @param unit time unit of ttl
+     */
+    public CachingSettingsStorage(SettingsStorage storage, long ttl,
+            TimeUnit unit) {
+        this(storage, ttl, unit, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Create caching storage. Values are refreshed in background when a half
+     * of ttl is passed, use setRefreshAfter to change it.
+     *
+     * @param storage wrapped storage
+     * @param ttl max age of cached value
+     * @param unit time unit of ttl
+     * @param executor executor for background refresh
+     */
+    public CachingSettingsStorage(SettingsStorage storage, long ttl,
+            TimeUnit unit, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.refreshAfterNanos = ttlNanos / 2;
+    }
+
+    public SettingsStorage getStorage() {
+        return storage;
+    }
+
+    public long getTtl(TimeUnit unit) {
+        return unit.convert(ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void setTtl(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public long getRefreshAfter(TimeUnit unit) {
+        return unit.convert(refreshAfterNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void setRefreshAfter(long refreshAfter, TimeUnit unit) {
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+    }
+
+    /**
+     * @return number of settings taken from cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of settings absent or expired in cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of settings reloaded in background
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return number of failed background reloads
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    /**
+     * Drop all cached values
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Drop cached value of setting
+     *
+     * @param name key of setting
+     */
+    public void invalidate(String name) {
+        cache.remove(name);
+    }
+
+    @Override
+    public void syncField(Field field, Object o) throws SettingsException {
+        syncFields(Collections.singletonList(field), o);
+    }
+
+    @Override
+    protected void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        CachedValue[] values = new CachedValue[fields.size()];
+        List<String> missed = null;
+        for (int i = 0; i < values.length; i++) {
+            String key = settingKey(fields.get(i));
+            CachedValue cv = cache.get(key);
+            if (cv == null || now - cv.loadedAt >= ttlNanos) {
+                if (missed == null) {
+                    missed = new ArrayList<String>();
+                }
+                missed.add(key);
+            } else {
+                values[i] = cv;
+            }
+        }
+        int misses = (missed != null) ? missed.size() : 0;
+        missCount.addAndGet(misses);
+        hitCount.addAndGet(values.length - misses);
+        cacheLookups(values.length - misses, misses);
+        List<Field> absent = null;
+        if (missed != null) {
+            // raw values are cached, so refresh finds the same strings
+            Map<String, String> loaded = storage.readValues(missed);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    continue;
+                }
+                Field field = fields.get(i);
+                String key = settingKey(field);
+                if (loaded.containsKey(key)) {
+                    values[i] = new CachedValue(loaded.get(key), now);
+                    cache.put(key, values[i]);
+                } else {
+                    if (absent == null) {
+                        absent = new ArrayList<Field>();
+                    }
+                    absent.add(field);
+                }
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                applyValue(fields.get(i), values[i].value, o);
+            }
+        }
+        if (absent != null) {
+            // wrapped storage adds missing records with default values
+            storage.saveValues(absent, o);
+            remember(absent, o);
+            for (Field field : absent) {
+                valueApplied(field, cache.get(settingKey(field)).value, o);
+            }
+        }
+        List<String> stale = null;
+        for (int i = 0; i < values.length; i++) {
+            Field field = fields.get(i);
+            String key = settingKey(field);
+            if (values[i] != null
+                    && now - values[i].loadedAt >= refreshAfterNanos
+                    && refreshing.add(key)) {
+                if (stale == null) {
+                    stale = new ArrayList<String>();
+                }
+                stale.add(key);
+            }
+        }
+        if (stale != null) {
+            refresh(stale);
+        }
+    }
+
+    @Override
+    public void saveValue(Field field, Object o) throws SettingsException {
+        storage.saveValue(field, o);
+        remember(Collections.singletonList(field), o);
+    }
+
+    @Override
+    protected void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        if (o == null) {
+            storage.save(fields.get(0).getDeclaringClass());
+        } else {
+            storage.save(o);
+        }
+        remember(fields, o);
+    }
+
+    /**
+     * Changed settings are detected and saved by wrapped storage, so all
+     * settings of class are published to invalidation bus
+     */
+    @Override
+    public void saveChanged(Class<?> clazz) throws SettingsException {
+        storage.saveChanged(clazz);
+        List<Field> fields = SettingsClassModel.of(clazz).reflectFields(null);
+        remember(fields, null);
+        publishSaved(fields);
+    }
+
+    /**
+     * Changed settings are detected and saved by wrapped storage, so all
+     * settings of instance are published to invalidation bus
+     */
+    @Override
+    public void saveChanged(Object o) throws SettingsException {
+        storage.saveChanged(o);
+        if (o instanceof SettingsSnapshot) {
+            o = ((SettingsSnapshot<?>) o).get();
+        }
+        List<Field> fields = SettingsClassModel.of(o.getClass())
+                .reflectFields(o);
+        remember(fields, o);
+        publishSaved(fields);
+    }
+
+    /**
+     * Cached values of keys are dropped, so they are read from wrapped
+     * storage
+     */
+    @Override
+    public void reload(Collection<String> keys) throws SettingsException {
+        for (String key : keys) {
+            cache.remove(key);
+        }
+        super.reload(keys);
+    }
+
+    @Override
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        long now = System.nanoTime();
+        Map<String, String> result = new HashMap<String, String>();
+        List<String> missed = new ArrayList<String>();
+        for (String name : names) {
+            CachedValue cv = cache.get(name);
+            if (cv == null || now - cv.loadedAt >= ttlNanos) {
+                missed.add(name);
+            } else {
+                result.put(name, cv.value);
+            }
+        }
+        hitCount.addAndGet(result.size());
+        cacheLookups(result.size(), missed.size());
+        if (!missed.isEmpty()) {
+            missCount.addAndGet(missed.size());
+            Map<String, String> loaded = storage.readValues(missed);
+            for (Map.Entry<String, String> e : loaded.entrySet()) {
+                cache.put(e.getKey(), new CachedValue(e.getValue(), now));
+            }
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    /*
+     * put current values of fields into cache
+     */
+    private void remember(List<Field> fields, Object o)
+            throws SettingsException {
+        long now = System.nanoTime();
+        try {
+            for (Field field : fields) {
+                Object value = field.get(o);
+                cache.put(settingKey(field), new CachedValue(
+                        (value != null) ? String.valueOf(value) : null, now));
+            }
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+    }
+
+    /*
+     * reload settings from wrapped storage in background
+     */
+    private void refresh(final List<String> names) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Map<String, String> values = storage.readValues(names);
+                        long now = System.nanoTime();
+                        for (String name : names) {
+                            if (values.containsKey(name)) {
+                                cache.put(name, new CachedValue(
+                                        values.get(name), now));
+                            } else {
+                                // record was removed from data source,
+                                // next load will restore it
+                                cache.remove(name);
+                            }
+                        }
+                        refreshCount.addAndGet(names.size());
+                    } catch (Exception ex) {
+                        refreshFailureCount.incrementAndGet();
+                        logger.warn("background refresh of settings failed: "
+                                + ex.getMessage(), ex);
+                    } finally {
+                        refreshing.removeAll(names);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            refreshing.removeAll(names);
+            logger.warn("background refresh of settings rejected", ree);
+        }
+    }
+}
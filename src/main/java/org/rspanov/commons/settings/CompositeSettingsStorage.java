@@ -0,0 +1,333 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Storage chaining other storages as layers, e.g. in-memory overrides over
+ * database over bundled defaults file. Value of setting is taken from the
+ * first layer having it.
+ *
+ * At load each key of class is resolved once: remaining keys are read from
+ * each layer by one readValues call, and resolved values are kept in a
+ * flat table, so readValues of composite does not depend on number of
+ * layers. Layers must support readValues.
+ *
+ * Each layer has its own write policy. Saves are written to all layers
+ * which are not read only, saveChanged writes only changed settings to
+ * them.
+ *
+ * @author rspanov
+ */
+public class CompositeSettingsStorage extends SettingsStorage {
+
+    /**
+     * how settings are written to layer
+     */
+    public enum WritePolicy {
+
+        /**
+         * layer is never written
+         */
+        READ_ONLY,
+        /**
+         * saved settings are written to layer
+         */
+        WRITE_THROUGH,
+        /**
+         * saved settings are written to layer, and settings not found in
+         * any layer are added to it with default values at load
+         */
+        WRITE_THROUGH_WITH_DEFAULTS
+    }
+
+    /**
+     * storage with its write policy
+     */
+    public static final class Layer {
+
+        private final SettingsStorage storage;
+        private final WritePolicy writePolicy;
+
+        private Layer(SettingsStorage storage, WritePolicy writePolicy) {
+            this.storage = storage;
+            this.writePolicy = writePolicy;
+        }
+
+        public SettingsStorage getStorage() {
+            return storage;
+        }
+
+        public WritePolicy getWritePolicy() {
+            return writePolicy;
+        }
+
+        private boolean isWritable() {
+            return writePolicy != WritePolicy.READ_ONLY;
+        }
+    }
+
+    /**
+     * layers from the highest precedence to the lowest
+     */
+    private final List<Layer> layers = new CopyOnWriteArrayList<Layer>();
+
+    /**
+     * resolved values of keys, null is masked by NullValues
+     */
+    private final ConcurrentMap<String, String> resolved
+            = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Add layer with lower precedence than layers added before
+     *
+     * @param storage storage of layer
+     * @param writePolicy how settings are written to layer
+     */
+    public void addLayer(SettingsStorage storage, WritePolicy writePolicy) {
+        layers.add(new Layer(storage, writePolicy));
+        resolved.clear();
+    }
+
+    /**
+     * Add layer with given precedence
+     *
+     * @param precedence index of layer, 0 is the highest precedence
+     * @param storage storage of layer
+     * @param writePolicy how settings are written to layer
+     */
+    public void addLayer(int precedence, SettingsStorage storage,
+            WritePolicy writePolicy) {
+        layers.add(precedence, new Layer(storage, writePolicy));
+        resolved.clear();
+    }
+
+    /**
+     * @return layers from the highest precedence to the lowest
+     */
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /*
+     * resolve keys by layers into result, values are put into flat table
+     */
+    private void resolve(Collection<String> keys, Map<String, String> result)
+            throws SettingsException {
+        List<String> remaining = new ArrayList<String>(keys);
+        for (Layer layer : layers) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            Map<String, String> values = layer.storage.readValues(remaining);
+            if (values.isEmpty()) {
+                continue;
+            }
+            result.putAll(values);
+            List<String> next = new ArrayList<String>(remaining.size());
+            for (String key : remaining) {
+                if (!values.containsKey(key)) {
+                    next.add(key);
+                }
+            }
+            remaining = next;
+        }
+        for (String key : keys) {
+            if (result.containsKey(key)) {
+                resolved.put(key, NullValues.mask(result.get(key)));
+            }
+        }
+    }
+
+    @Override
+    public void syncField(Field field, Object o) throws SettingsException {
+        syncFields(Collections.singletonList(field), o);
+    }
+
+    /**
+     * Keys of class are resolved by layers, then writable layers remember
+     * resolved values, so their saveChanged writes only changed settings,
+     * and layers with defaults get the missing ones
+     */
+    @Override
+    protected void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>(fields.size());
+        for (Field field : fields) {
+            keys.add(settingKey(field));
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        resolve(keys, values);
+        boolean missing = false;
+        boolean added = false;
+        for (Field field : fields) {
+            String key = settingKey(field);
+            if (values.containsKey(key)) {
+                applyValue(field, values.get(key), o);
+            } else {
+                checkFiled(field, o);
+                missing = true;
+            }
+        }
+        try {
+            for (Layer layer : layers) {
+                if (!layer.isWritable()) {
+                    continue;
+                }
+                boolean defaults = layer.writePolicy
+                        == WritePolicy.WRITE_THROUGH_WITH_DEFAULTS;
+                for (Field field : fields) {
+                    if (defaults && !values.containsKey(settingKey(field))) {
+                        continue;
+                    }
+                    Object value = field.get(o);
+                    layer.storage.valueApplied(field, (value != null)
+                            ? String.valueOf(value) : null, o);
+                }
+                if (defaults && missing) {
+                    // only fields not remembered above are saved
+                    saveChanged(layer, fields.get(0).getDeclaringClass(), o);
+                    added = true;
+                }
+            }
+            if (added) {
+                for (Field field : fields) {
+                    if (!values.containsKey(settingKey(field))) {
+                        Object value = field.get(o);
+                        resolved.put(settingKey(field), NullValues.mask(
+                                (value != null) ? String.valueOf(value)
+                                : null));
+                    }
+                }
+            }
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+    }
+
+    private static void saveChanged(Layer layer, Class<?> clazz, Object o)
+            throws SettingsException {
+        if (o == null) {
+            layer.storage.saveChanged(clazz);
+        } else {
+            layer.storage.saveChanged(o);
+        }
+    }
+
+    @Override
+    public void saveValue(Field field, Object o) throws SettingsException {
+        checkFiled(field, o);
+        for (Layer layer : layers) {
+            if (layer.isWritable()) {
+                layer.storage.saveValue(field, o);
+            }
+        }
+        forget(Collections.singletonList(field));
+    }
+
+    @Override
+    protected void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        for (Layer layer : layers) {
+            if (!layer.isWritable()) {
+                continue;
+            }
+            if (o == null) {
+                layer.storage.save(fields.get(0).getDeclaringClass());
+            } else {
+                layer.storage.save(o);
+            }
+        }
+        forget(fields);
+    }
+
+    /**
+     * Changed settings are detected and saved by writable layers
+     */
+    @Override
+    public void saveChanged(Class<?> clazz) throws SettingsException {
+        for (Layer layer : layers) {
+            if (layer.isWritable()) {
+                saveChanged(layer, clazz, null);
+            }
+        }
+        forget(SettingsClassModel.of(clazz).reflectFields(null));
+    }
+
+    /**
+     * Changed settings are detected and saved by writable layers
+     */
+    @Override
+    public void saveChanged(Object o) throws SettingsException {
+        if (o instanceof SettingsSnapshot) {
+            o = ((SettingsSnapshot<?>) o).get();
+        }
+        for (Layer layer : layers) {
+            if (layer.isWritable()) {
+                saveChanged(layer, o.getClass(), o);
+            }
+        }
+        forget(SettingsClassModel.of(o.getClass()).reflectFields(o));
+    }
+
+    /*
+     * saved value may be hidden by upper layer, so it is resolved again
+     */
+    private void forget(List<Field> fields) {
+        for (Field field : fields) {
+            resolved.remove(settingKey(field));
+        }
+    }
+
+    /**
+     * Values are taken from flat table, unknown keys are resolved by layers
+     */
+    @Override
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        Map<String, String> result = new HashMap<String, String>();
+        List<String> unknown = null;
+        for (String name : names) {
+            String value = resolved.get(name);
+            if (value != null) {
+                result.put(name, NullValues.unmask(value));
+            } else {
+                if (unknown == null) {
+                    unknown = new ArrayList<String>();
+                }
+                unknown.add(name);
+            }
+        }
+        cacheLookups(result.size(), (unknown != null) ? unknown.size() : 0);
+        if (unknown != null) {
+            resolve(unknown, result);
+        }
+        return result;
+    }
+
+    /**
+     * Resolved values of keys are dropped, so they are read from layers
+     */
+    @Override
+    public void reload(Collection<String> keys) throws SettingsException {
+        for (String key : keys) {
+            resolved.remove(key);
+        }
+        super.reload(keys);
+    }
+}
@@ -0,0 +1,49 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Holder of double setting for reading on hot paths. Reads are volatile, so
+ * values set by storage are safely published to all threads, and do not
+ * lock, box or allocate. The value is padded against false sharing with
+ * other objects.
+ *
+ * Declare it as a field annotated with @Setting, storage updates the value
+ * in place, so the field may be final:
+ * <pre>
+ * &#64;Setting(description = "...")
+ * private final DoubleSetting setting = new DoubleSetting(0.5);
+ * </pre>
+ *
+ * @author rspanov
+ */
+public final class DoubleSetting extends DoubleSettingValue {
+
+    long q1, q2, q3, q4, q5, q6, q7;
+
+    public DoubleSetting() {
+    }
+
+    public DoubleSetting(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return value;
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
+
+/*
+ * value of setting placed between paddings
+ */
+abstract class DoubleSettingValue extends SettingPadding {
+
+    volatile double value;
+}
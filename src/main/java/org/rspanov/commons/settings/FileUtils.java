@@ -0,0 +1,42 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File operations shared by file based storages
+ *
+ * @author rspanov
+ */
+final class FileUtils {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(FileUtils.class);
+
+    private FileUtils() {
+    }
+
+    /**
+     * Make rename of file in directory durable, not supported on some
+     * platforms
+     *
+     * @param dir directory of renamed file
+     */
+    static void syncDirectory(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ioe) {
+            logger.debug("directory {} can't be synchronized", dir);
+        }
+    }
+}
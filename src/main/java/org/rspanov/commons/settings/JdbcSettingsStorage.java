@@ -0,0 +1,1071 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.rspanov.commons.settings.ann.Setting;
+import org.rspanov.commons.settings.dialect.SqlDialect;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+import org.rspanov.commons.settings.metrics.SettingsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This storage allow to store settings into database table by JDBC.
+ * Differences of databases are hidden by SqlDialect.
+ *
+ * SQL of statements is built once per configuration of storage, so the
+ * driver and the database can reuse prepared statements. Lists of names in
+ * bulk selects are padded to the power of two, but not over the limit of
+ * dialect, so only a few different selects are ever used.
+ *
+ * In write-behind mode saves only put values into bounded queue, and they
+ * are written in batches by background flusher.
+ *
+ * @author rspanov
+ */
+public class JdbcSettingsStorage extends SettingsStorage {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(JdbcSettingsStorage.class);
+
+    /**
+     * database table name to store settings
+     */
+    private String tableName = "SETTINGS";
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+        this.sql = null;
+    }
+
+    /**
+     * table column to store filed name
+     */
+    private String nameField = "NAME";
+
+    public String getNameField() {
+        return nameField;
+    }
+
+    public void setNameField(String nameField) {
+        this.nameField = nameField;
+        this.sql = null;
+    }
+
+    /**
+     * table column to store field value
+     */
+    private String valueFiled = "VALUE";
+
+    public String getValueFiled() {
+        return valueFiled;
+    }
+
+    public void setValueFiled(String valueFiled) {
+        this.valueFiled = valueFiled;
+        this.sql = null;
+    }
+
+    /**
+     * table column to store field description
+     */
+    private String descriptionField = "DESCRIPTION";
+
+    public String getDescriptionField() {
+        return descriptionField;
+    }
+
+    public void setDescriptionField(String descriptionField) {
+        this.descriptionField = descriptionField;
+        this.sql = null;
+    }
+
+    /**
+     * optional table column with version or modification time of record,
+     * it must be increased by database on each insert and update of record
+     * (e.g. TIMESTAMP with ON UPDATE CURRENT_TIMESTAMP). If it is set,
+     * refresh loads only records changed since previous load.
+     */
+    private String versionField;
+
+    public String getVersionField() {
+        return versionField;
+    }
+
+    public void setVersionField(String versionField) {
+        this.versionField = versionField;
+        this.sql = null;
+    }
+
+    /**
+     * SQL of the database
+     */
+    private SqlDialect dialect;
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    public void setDialect(SqlDialect dialect) {
+        this.dialect = dialect;
+        this.sql = null;
+    }
+
+    /**
+     * statements of current configuration, null if it is changed
+     */
+    private volatile Statements sql;
+
+    /**
+     * SQL of statements built for configuration of storage
+     */
+    private static final class Statements {
+
+        private final String upsert;
+        private final String selectPrefix;
+        private final String selectChangedPrefix;
+        private final String selectIn;
+        private final String selectChangedIn;
+        private final int maxInListSize;
+        /**
+         * selects by power of two sizes, the last one by max size of list
+         */
+        private final String[] selectsBySize = new String[33];
+        private final String[] selectsChangedBySize = new String[33];
+
+        private Statements(JdbcSettingsStorage s) {
+            SqlDialect d = s.getDialect();
+            String table = d.quote(s.getTableName());
+            String name = d.quote(s.getNameField());
+            String value = d.quote(s.getValueFiled());
+            String columns = "select " + name + ", " + value
+                    + ((s.getVersionField() != null)
+                            ? ", " + d.quote(s.getVersionField()) : "")
+                    + " from " + table + " where ";
+            upsert = d.upsert(table, name, value,
+                    d.quote(s.getDescriptionField()));
+            selectPrefix = columns + name + " like ? escape '!'";
+            String changed = (s.getVersionField() != null) ? columns
+                    + d.quote(s.getVersionField()) + " >= ? and " : null;
+            selectChangedPrefix = (changed != null) ? changed + name
+                    + " like ? escape '!'" : null;
+            selectIn = columns + name + " in (";
+            selectChangedIn = (changed != null) ? changed + name + " in ("
+                    : null;
+            maxInListSize = d.getMaxInListSize();
+        }
+
+        /*
+         * select by list of names of given size, power of two or max size,
+         * changed since version if changed is true
+         */
+        private synchronized String selectIn(int size, boolean changed) {
+            int bucket = (Integer.bitCount(size) == 1)
+                    ? Integer.numberOfTrailingZeros(size) : 32;
+            String[] queries = changed ? selectsChangedBySize : selectsBySize;
+            String query = queries[bucket];
+            if (query == null) {
+                StringBuilder sb = new StringBuilder(changed
+                        ? selectChangedIn : selectIn);
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "?" : ", ?");
+                }
+                query = sb.append(")").toString();
+                queries[bucket] = query;
+            }
+            return query;
+        }
+    }
+
+    private Statements sql() {
+        Statements s = sql;
+        if (s == null) {
+            s = new Statements(this);
+            sql = s;
+        }
+        return s;
+    }
+
+    /**
+     * max version of records seen by last load/refresh of class or instance
+     * with names of records having this version
+     */
+    private static final class Watermark {
+
+        private final Comparable<Object> version;
+        private final Set<String> names;
+
+        private Watermark(Comparable<Object> version, Set<String> names) {
+            this.version = version;
+            this.names = names;
+        }
+
+        /*
+         * check if record was already seen
+         */
+        private boolean contains(String name, Comparable<Object> v) {
+            return version.compareTo(v) == 0 && names.contains(name);
+        }
+
+        private Watermark merge(Watermark other) {
+            if (other == null) {
+                return this;
+            }
+            int cmp = version.compareTo(other.version);
+            if (cmp == 0) {
+                Set<String> all = new HashSet<String>(names);
+                all.addAll(other.names);
+                return new Watermark(version, all);
+            }
+            return (cmp > 0) ? this : other;
+        }
+    }
+
+    private final Map<Object, Watermark> watermarks = Collections
+            .synchronizedMap(new WeakHashMap<Object, Watermark>());
+
+    /**
+     * save all fields of class by one batch in one transaction
+     */
+    private boolean batchSave = true;
+
+    public boolean isBatchSave() {
+        return batchSave;
+    }
+
+    public void setBatchSave(boolean batchSave) {
+        this.batchSave = batchSave;
+    }
+
+    /**
+     * saves are written by background flusher
+     */
+    private volatile boolean writeBehind;
+
+    /**
+     * max number of settings waiting for write in write-behind mode
+     */
+    private int writeBehindCapacity = 10000;
+
+    /**
+     * milliseconds to collect saves before they are written
+     */
+    private long flushInterval = 100;
+
+    /**
+     * max milliseconds to wait for room in full write-behind queue
+     */
+    private long writeBehindTimeout = 5000;
+
+    private volatile WriteBehindQueue queue;
+    private Thread shutdownHook;
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Turn on write-behind mode. Saves update fields and return at once,
+     * values are written by background flusher in batches, and only the
+     * last value of setting saved during flush interval is written. When
+     * the queue is full, saves wait for flusher. Loads and reads see values
+     * not written yet. Queued values are written by flush, close and on
+     * shutdown of JVM, and invalidation is published after they are
+     * written.
+     *
+     * @param writeBehind true to write saves in background
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public synchronized int getWriteBehindCapacity() {
+        return writeBehindCapacity;
+    }
+
+    /**
+     * @param writeBehindCapacity max number of settings waiting for write,
+     * it is used by queue created after change
+     */
+    public synchronized void setWriteBehindCapacity(int writeBehindCapacity) {
+        this.writeBehindCapacity = writeBehindCapacity;
+    }
+
+    public synchronized long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @param flushInterval milliseconds to collect saves before they are
+     * written, it is used by queue created after change
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public synchronized long getWriteBehindTimeout() {
+        return writeBehindTimeout;
+    }
+
+    /**
+     * @param writeBehindTimeout max milliseconds to wait for room in full
+     * queue, then save fails
+     */
+    public synchronized void setWriteBehindTimeout(long writeBehindTimeout) {
+        this.writeBehindTimeout = writeBehindTimeout;
+    }
+
+    /**
+     * data source of settings table
+     */
+    private DataSource dataSource;
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /*
+     * get connection from data source measuring the time of it
+     */
+    private Connection getConnection() throws SQLException {
+        long start = startTiming();
+        boolean success = false;
+        try {
+            Connection conn = getDataSource().getConnection();
+            success = true;
+            return conn;
+        } finally {
+            stopTiming(SettingsMetrics.Operation.CONNECTION, start, success);
+        }
+    }
+
+    /**
+     * Create storage, data source must be set before use
+     *
+     * @param dialect SQL of the database
+     */
+    public JdbcSettingsStorage(SqlDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Create storage with lookup data source in JNDI
+     *
+     * @param jndiName JNDI-name of data source
+     * @param dialect SQL of the database
+     * @throws SettingsException
+     */
+    public JdbcSettingsStorage(String jndiName, SqlDialect dialect)
+            throws SettingsException {
+        this.dialect = dialect;
+        try {
+            Context ctx = new InitialContext();
+            this.dataSource = (DataSource) ctx.lookup(jndiName);
+        } catch (NamingException ne) {
+            throw new SettingsException(ne);
+        }
+    }
+
+    /**
+     * Create storage with data source
+     *
+     * @param dataSource data source of settings table
+     * @param dialect SQL of the database
+     */
+    public JdbcSettingsStorage(DataSource dataSource, SqlDialect dialect) {
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+    }
+
+    private static void bindUpsert(PreparedStatement stmt, Field field,
+            Object o) throws Exception {
+        Object value = field.get(o);
+        bindUpsert(stmt, settingKey(field), (value != null)
+                ? String.valueOf(value) : null,
+                field.getAnnotation(Setting.class).description());
+    }
+
+    private static void bindUpsert(PreparedStatement stmt, String name,
+            String value, String description) throws SQLException {
+        stmt.setString(1, name);
+        if (value == null) {
+            stmt.setNull(2, Types.VARCHAR);
+        } else {
+            stmt.setString(2, value);
+        }
+        stmt.setString(3, description);
+    }
+
+    @Override
+    public void saveValue(Field field, Object o) throws SettingsException {
+        if (isWriteBehind()) {
+            enqueue(Collections.singletonList(field), o);
+            return;
+        }
+        checkFiled(field, o);
+        try {
+            Connection conn = getConnection();
+            try {
+                PreparedStatement stmt = conn.prepareStatement(sql().upsert);
+                try {
+                    bindUpsert(stmt, field, o);
+                    stmt.executeUpdate();
+                    roundTrips(1);
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Save all fields of class by one batch in one transaction, so the
+     * settings of class are either written completely or not at all
+     */
+    @Override
+    protected void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        if (isWriteBehind()) {
+            enqueue(fields, o);
+            return;
+        }
+        if (!isBatchSave()) {
+            super.saveValues(fields, o);
+            return;
+        }
+        if (fields.isEmpty()) {
+            return;
+        }
+        for (Field field : fields) {
+            checkFiled(field, o);
+        }
+        try {
+            Connection conn = getConnection();
+            try {
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    upsertValues(conn, fields, o);
+                    conn.commit();
+                } catch (Exception ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    @Override
+    public void syncField(Field field, Object o) throws SettingsException {
+        syncFields(Collections.singletonList(field), o);
+    }
+
+    /**
+     * Load all fields of class using single connection: values are selected
+     * by one query, missing settings are inserted by one batch. Prefetched
+     * values are used without query.
+     */
+    @Override
+    protected void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>(fields.size());
+        for (Field field : fields) {
+            keys.add(settingKey(field));
+        }
+        try {
+            Connection conn = null;
+            try {
+                Map<String, String> values = new HashMap<String, String>();
+                Watermark version;
+                Prefetch p = prefetched.get();
+                if (p != null && p.keys.containsAll(keys)) {
+                    for (String key : keys) {
+                        if (p.values.containsKey(key)) {
+                            values.put(key, p.values.get(key));
+                        }
+                    }
+                    version = p.version;
+                } else {
+                    conn = getConnection();
+                    String namespace = settingsNamespace(fields.get(0)
+                            .getDeclaringClass());
+                    if (namespace != null) {
+                        version = selectNamespace(conn, namespace, values,
+                                null);
+                    } else {
+                        version = selectValues(conn, keys, values, null);
+                    }
+                }
+                updateWatermark(target(fields.get(0).getDeclaringClass(), o),
+                        version);
+                overlayPending(keys, values);
+                List<Field> missing = new ArrayList<Field>();
+                for (Field field : fields) {
+                    String key = settingKey(field);
+                    if (values.containsKey(key)) {
+                        applyValue(field, values.get(key), o);
+                    } else {
+                        checkFiled(field, o);
+                        missing.add(field);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    if (conn == null) {
+                        conn = getConnection();
+                    }
+                    upsertValues(conn, missing, o);
+                }
+            } finally {
+                if (conn != null) {
+                    conn.close();
+                }
+            }
+        } catch (SettingsException se) {
+            throw se;
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * values selected for loadAll
+     */
+    private static final class Prefetch {
+
+        private final Set<String> keys;
+        private final Map<String, String> values;
+        private final Watermark version;
+
+        private Prefetch(Set<String> keys, Map<String, String> values,
+                Watermark version) {
+            this.keys = keys;
+            this.values = values;
+            this.version = version;
+        }
+    }
+
+    private final ThreadLocal<Prefetch> prefetched = new ThreadLocal<Prefetch>();
+
+    /**
+     * Values of all settings are selected by lists limited by dialect
+     * using one connection
+     */
+    @Override
+    protected void prefetch(Collection<String> keys) throws SettingsException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            Connection conn = getConnection();
+            try {
+                Map<String, String> values = new HashMap<String, String>();
+                Watermark version = selectValues(conn, keys, values, null);
+                prefetched.set(new Prefetch(new HashSet<String>(keys), values,
+                        version));
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    @Override
+    protected void prefetchDone() {
+        prefetched.remove();
+    }
+
+    @Override
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        if (names.isEmpty()) {
+            return new HashMap<String, String>();
+        }
+        try {
+            Connection conn = getConnection();
+            try {
+                Map<String, String> values = new HashMap<String, String>();
+                selectValues(conn, names, values, null);
+                overlayPending(names, values);
+                return values;
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /*
+     * select values of settings into result by lists limited by dialect,
+     * only records changed since seen watermark if it is not null, returns
+     * max version of selected records if version field is used
+     */
+    private Watermark selectValues(Connection conn, Collection<String> names,
+            Map<String, String> result, Watermark seen) throws Exception {
+        Statements s = sql();
+        List<String> all = new ArrayList<String>(names);
+        Watermark version = null;
+        for (int from = 0; from < all.size(); from += s.maxInListSize) {
+            List<String> part = all.subList(from,
+                    Math.min(from + s.maxInListSize, all.size()));
+            int size = Integer.highestOneBit(part.size());
+            if (size < part.size()) {
+                size = Math.min(size << 1, s.maxInListSize);
+            }
+            PreparedStatement stmt = conn.prepareStatement(s.selectIn(size,
+                    seen != null));
+            try {
+                int first = 1;
+                if (seen != null) {
+                    stmt.setObject(first++, seen.version);
+                }
+                for (int i = 0; i < size; i++) {
+                    // padding repeats the last name
+                    stmt.setString(first + i, part.get(Math.min(i,
+                            part.size() - 1)));
+                }
+                Watermark w = readRows(stmt, result, seen);
+                version = (w != null) ? w.merge(version) : version;
+            } finally {
+                stmt.close();
+            }
+        }
+        return version;
+    }
+
+    /*
+     * select values of all settings of namespace by one prefix query, which
+     * is a range scan of index on name column
+     */
+    private Watermark selectNamespace(Connection conn, String namespace,
+            Map<String, String> result, Watermark seen) throws Exception {
+        PreparedStatement stmt = conn.prepareStatement((seen != null)
+                ? sql().selectChangedPrefix : sql().selectPrefix);
+        try {
+            int first = 1;
+            if (seen != null) {
+                stmt.setObject(first++, seen.version);
+            }
+            stmt.setString(first, namespace.replace("!", "!!")
+                    .replace("%", "!%").replace("_", "!_") + ".%");
+            return readRows(stmt, result, seen);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * read name/value rows of query, returns max version of rows. Refresh
+     * passes records seen before, they are skipped as well as records
+     * without version; full load takes all records, records written
+     * before version field was added have null version.
+     */
+    @SuppressWarnings("unchecked")
+    private Watermark readRows(PreparedStatement stmt,
+            Map<String, String> result, Watermark seen) throws Exception {
+        Comparable<Object> max = null;
+        Set<String> names = new HashSet<String>();
+        ResultSet rs = stmt.executeQuery();
+        roundTrips(1);
+        try {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (getVersionField() == null) {
+                    result.put(name, rs.getString(2));
+                    continue;
+                }
+                Comparable<Object> version = (Comparable<Object>) rs
+                        .getObject(3);
+                if (seen != null && (version == null
+                        || seen.contains(name, version))) {
+                    continue;
+                }
+                result.put(name, rs.getString(2));
+                if (version == null) {
+                    continue;
+                }
+                int cmp = (max == null) ? 1 : version.compareTo(max);
+                if (cmp > 0) {
+                    max = version;
+                    names.clear();
+                }
+                if (cmp >= 0) {
+                    names.add(name);
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return (max != null) ? new Watermark(max, names) : null;
+    }
+
+    private static Object target(Class<?> clazz, Object o) {
+        return (o == null) ? clazz : o;
+    }
+
+    private void updateWatermark(Object target, Watermark version) {
+        if (version == null) {
+            return;
+        }
+        synchronized (watermarks) {
+            watermarks.put(target, version.merge(watermarks.get(target)));
+        }
+    }
+
+    /**
+     * Reload static fields of class. If version field is used and class
+     * was loaded before, only records changed since previous load/refresh
+     * are selected and only the affected fields are updated. Otherwise
+     * class is fully loaded.
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void refresh(Class<?> clazz) throws SettingsException {
+        refresh(clazz, null);
+    }
+
+    /**
+     * Reload fields of instance. If version field is used and instance
+     * was loaded before, only records changed since previous load/refresh
+     * are selected and only the affected fields are updated. Otherwise
+     * instance is fully loaded.
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void refresh(Object o) throws SettingsException {
+        refresh(o.getClass(), o);
+    }
+
+    private void refresh(Class<?> clazz, Object o) throws SettingsException {
+        Object target = target(clazz, o);
+        Watermark watermark = (getVersionField() != null)
+                ? watermarks.get(target) : null;
+        if (watermark == null) {
+            if (o == null) {
+                load(clazz);
+            } else {
+                load(o);
+            }
+            return;
+        }
+        try {
+            Map<String, String> values = new HashMap<String, String>();
+            Watermark version;
+            SettingsClassModel model = SettingsClassModel.of(clazz);
+            Connection conn = getConnection();
+            try {
+                // records changed at the same moment as watermark may be
+                // committed after previous read, so they are read again
+                // and only the ones not seen before are applied; only
+                // records of the class are read, as by load
+                String namespace = settingsNamespace(clazz);
+                if (namespace != null) {
+                    version = selectNamespace(conn, namespace, values,
+                            watermark);
+                } else {
+                    List<String> keys = new ArrayList<String>();
+                    for (SettingField sf : model.fields(o)) {
+                        keys.add(sf.getKey());
+                    }
+                    version = selectValues(conn, keys, values, watermark);
+                }
+            } finally {
+                conn.close();
+            }
+            overlayPending(new ArrayList<String>(values.keySet()), values);
+            for (Map.Entry<String, String> e : values.entrySet()) {
+                SettingField sf = model.getByKey(e.getKey());
+                if (sf != null && (o != null || sf.isStatic())) {
+                    applyValue(sf.getField(), e.getValue(), o);
+                }
+            }
+            updateWatermark(target, version);
+        } catch (SettingsException se) {
+            throw se;
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    private void upsertValues(Connection conn, List<Field> fields, Object o)
+            throws Exception {
+        PreparedStatement stmt = conn.prepareStatement(sql().upsert);
+        try {
+            for (Field field : fields) {
+                bindUpsert(stmt, field, o);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            roundTrips(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * values saved in write-behind mode and not written yet replace the
+     * selected ones
+     */
+    private void overlayPending(Collection<String> names,
+            Map<String, String> values) {
+        WriteBehindQueue q = queue;
+        if (q == null) {
+            return;
+        }
+        for (String name : names) {
+            WriteBehindQueue.Entry e = q.get(name);
+            if (e != null) {
+                values.put(name, e.value);
+            }
+        }
+    }
+
+    /*
+     * queue of write-behind mode with its flusher, created on first save
+     */
+    private synchronized WriteBehindQueue queue() {
+        if (queue == null) {
+            queue = new WriteBehindQueue(new WriteBehindQueue.Writer() {
+                @Override
+                public void write(Collection<WriteBehindQueue.Entry> entries)
+                        throws Exception {
+                    writeEntries(entries);
+                }
+
+                @Override
+                public boolean isPermanent(Exception ex) {
+                    return isDataError(ex);
+                }
+            }, writeBehindCapacity, flushInterval, "settings-write-behind-"
+                    + getTableName());
+            shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (SettingsException se) {
+                        logger.error("saved settings are not written "
+                                + "on shutdown", se);
+                    }
+                }
+            }, "settings-write-behind-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return queue;
+    }
+
+    /*
+     * put current values of fields into write-behind queue
+     */
+    private void enqueue(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        try {
+            List<WriteBehindQueue.Entry> entries
+                    = new ArrayList<WriteBehindQueue.Entry>(fields.size());
+            for (Field field : fields) {
+                checkFiled(field, o);
+                Object value = field.get(o);
+                entries.add(new WriteBehindQueue.Entry(settingKey(field),
+                        (value != null) ? String.valueOf(value) : null,
+                        field.getAnnotation(Setting.class).description()));
+            }
+            WriteBehindQueue q = queue();
+            if (!q.put(entries, getWriteBehindTimeout())) {
+                throw new SettingsException("write-behind queue of settings "
+                        + "is full", SettingsExceptionType.OTHERS);
+            }
+            writeQueueDepth(q.size());
+        } catch (SettingsException se) {
+            throw se;
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /*
+     * write batch of queued values in one transaction, then publish them
+     */
+    private void writeEntries(Collection<WriteBehindQueue.Entry> entries)
+            throws Exception {
+        long start = startTiming();
+        boolean success = false;
+        List<String> keys = new ArrayList<String>(entries.size());
+        try {
+            Connection conn = getConnection();
+            try {
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement stmt = conn.prepareStatement(
+                            sql().upsert);
+                    try {
+                        for (WriteBehindQueue.Entry e : entries) {
+                            bindUpsert(stmt, e.name, e.value, e.description);
+                            stmt.addBatch();
+                            keys.add(e.name);
+                        }
+                        stmt.executeBatch();
+                        roundTrips(1);
+                    } finally {
+                        stmt.close();
+                    }
+                    conn.commit();
+                } catch (Exception ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+            } finally {
+                conn.close();
+            }
+            success = true;
+        } finally {
+            stopTiming(SettingsMetrics.Operation.FLUSH, start, success);
+            WriteBehindQueue q = queue;
+            if (q != null) {
+                writeQueueDepth(q.size());
+            }
+        }
+        publishKeys(keys);
+    }
+
+    /*
+     * too long value or violated constraint, SQL state classes 22 and 23,
+     * it fails on every write
+     */
+    private static boolean isDataError(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && (state.startsWith("22")
+                        || state.startsWith("23"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * In write-behind mode keys are published after they are written
+     */
+    @Override
+    protected void publishSaved(List<Field> fields) {
+        if (!isWriteBehind()) {
+            super.publishSaved(fields);
+        }
+    }
+
+    /**
+     * Write settings waiting in write-behind queue now
+     *
+     * @throws SettingsException if write is failed, settings are kept in
+     * queue
+     */
+    public void flush() throws SettingsException {
+        WriteBehindQueue q = queue;
+        if (q == null) {
+            return;
+        }
+        try {
+            q.flush();
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Write settings waiting in queue and stop write-behind flusher. If
+     * write is failed, the queue is kept and saves go on as before close.
+     *
+     * @throws SettingsException
+     */
+    public void close() throws SettingsException {
+        flush();
+        WriteBehindQueue q;
+        Thread hook;
+        synchronized (this) {
+            q = queue;
+            hook = shutdownHook;
+            queue = null;
+            shutdownHook = null;
+        }
+        if (hook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ise) {
+                // JVM is shutting down already
+            }
+        }
+        if (q == null) {
+            return;
+        }
+        try {
+            q.close();
+        } catch (Exception ex) {
+            // values saved after flush are moved into new queue
+            requeue(q.pending());
+            throw new SettingsException(ex);
+        }
+    }
+
+    private void requeue(List<WriteBehindQueue.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            if (queue().put(entries, getWriteBehindTimeout())) {
+                return;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        logger.error("{} saved settings are not written", entries.size());
+    }
+}
@@ -0,0 +1,405 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.metrics.SettingsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorator keeping last known good values of settings in local binary
+ * snapshot file, so the service starts fast and starts when the data
+ * source is slow or down.
+ *
+ * The first load of class or instance binds values from the memory-mapped
+ * snapshot if it has all settings of class, then the class is reconciled
+ * with wrapped storage in background: changed values are applied and
+ * listeners are notified. If snapshot has not all settings, the class is
+ * loaded from wrapped storage, and if it fails, values found in snapshot
+ * are used and the class is reconciled later. Next loads of the same
+ * settings always go to wrapped storage.
+ *
+ * Snapshot is written in background after each successful load and save.
+ *
+ * @author rspanov
+ */
+public class LastKnownGoodSettingsStorage extends SettingsStorage {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(LastKnownGoodSettingsStorage.class);
+
+    /*
+     * shared executor for reconciliation and snapshot writes, created on
+     * first use
+     */
+    private static final class DefaultExecutor {
+
+        private static final ExecutorService INSTANCE = Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "settings-reconcile");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    private final SettingsStorage storage;
+
+    private final File file;
+
+    private final Executor executor;
+
+    /**
+     * snapshot written by previous run, mapped on first load
+     */
+    private SnapshotFile snapshot;
+    private boolean snapshotOpened;
+
+    /**
+     * values loaded or saved by this run, null is masked by NullValues
+     */
+    private final ConcurrentMap<String, String> current
+            = new ConcurrentHashMap<String, String>();
+
+    private final AtomicBoolean writePending = new AtomicBoolean();
+
+    private final AtomicLong snapshotLoadCount = new AtomicLong();
+    private final AtomicLong reconcileCount = new AtomicLong();
+    private final AtomicLong reconcileFailureCount = new AtomicLong();
+
+    /**
+     * Create storage reconciling and writing snapshot by shared daemon
+     * thread
+     *
+     * @param storage wrapped storage
+     * @param fileName name of snapshot file
+     */
+    public LastKnownGoodSettingsStorage(SettingsStorage storage,
+            String fileName) {
+        this(storage, fileName, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Create storage
+     *
+     * @param storage wrapped storage
+     * @param fileName name of snapshot file
+     * @param executor executor for reconciliation and snapshot writes
+     */
+    public LastKnownGoodSettingsStorage(SettingsStorage storage,
+            String fileName, Executor executor) {
+        this.storage = storage;
+        this.file = new File(fileName);
+        this.executor = executor;
+    }
+
+    public SettingsStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return number of classes and instances bound from snapshot
+     */
+    public long getSnapshotLoadCount() {
+        return snapshotLoadCount.get();
+    }
+
+    /**
+     * @return number of classes and instances reconciled with wrapped
+     * storage
+     */
+    public long getReconcileCount() {
+        return reconcileCount.get();
+    }
+
+    /**
+     * @return number of failed reconciliations
+     */
+    public long getReconcileFailureCount() {
+        return reconcileFailureCount.get();
+    }
+
+    /*
+     * snapshot of previous run, damaged snapshot is ignored
+     */
+    private synchronized SnapshotFile snapshot() {
+        if (!snapshotOpened) {
+            snapshotOpened = true;
+            long start = startTiming();
+            boolean success = false;
+            try {
+                snapshot = SnapshotFile.open(file);
+                success = true;
+            } catch (IOException ioe) {
+                logger.warn("settings snapshot is not used: "
+                        + ioe.getMessage(), ioe);
+            } finally {
+                stopTiming(SettingsMetrics.Operation.FILE_READ, start,
+                        success);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void syncField(Field field, Object o) throws SettingsException {
+        syncFields(Collections.singletonList(field), o);
+    }
+
+    @Override
+    protected void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        boolean first = true;
+        for (Field field : fields) {
+            if (current.containsKey(settingKey(field))) {
+                first = false;
+                break;
+            }
+        }
+        SnapshotFile s = first ? snapshot() : null;
+        if (s != null && containsAll(s, fields)) {
+            for (Field field : fields) {
+                applyValue(field, s.get(settingKey(field)), o);
+            }
+            record(fields, o);
+            snapshotLoadCount.incrementAndGet();
+            reconcile(fields, o);
+            return;
+        }
+        try {
+            loadThrough(fields, o);
+        } catch (SettingsException se) {
+            if (s == null) {
+                throw se;
+            }
+            logger.warn("settings of " + fields.get(0).getDeclaringClass()
+                    .getName() + " are bound from last known good snapshot, "
+                    + "storage failed: " + se.getMessage(), se);
+            for (Field field : fields) {
+                String key = settingKey(field);
+                if (s.contains(key)) {
+                    applyValue(field, s.get(key), o);
+                }
+            }
+            snapshotLoadCount.incrementAndGet();
+            reconcile(fields, o);
+        }
+    }
+
+    private static boolean containsAll(SnapshotFile s, List<Field> fields) {
+        for (Field field : fields) {
+            if (!s.contains(settingKey(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * load class from wrapped storage and remember loaded values
+     */
+    private void loadThrough(List<Field> fields, Object o)
+            throws SettingsException {
+        if (o == null) {
+            storage.load(fields.get(0).getDeclaringClass());
+        } else {
+            storage.load(o);
+        }
+        try {
+            for (Field field : fields) {
+                Object value = field.get(o);
+                valueApplied(field, (value != null) ? String.valueOf(value)
+                        : null, o);
+            }
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+        remember(fields, o);
+    }
+
+    /*
+     * read values of fields from wrapped storage in background and apply
+     * the changed ones, missing records are added by full load
+     */
+    private void reconcile(final List<Field> fields, final Object o) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<String> keys = new ArrayList<String>();
+                        for (Field field : fields) {
+                            keys.add(settingKey(field));
+                        }
+                        Map<String, String> values = storage.readValues(keys);
+                        if (values.size() < keys.size()) {
+                            loadThrough(fields, o);
+                        } else {
+                            for (Field field : fields) {
+                                applyValue(field, values.get(
+                                        settingKey(field)), o);
+                            }
+                            remember(fields, o);
+                        }
+                        reconcileCount.incrementAndGet();
+                    } catch (Exception ex) {
+                        reconcileFailureCount.incrementAndGet();
+                        logger.warn("reconciliation of settings failed: "
+                                + ex.getMessage(), ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            reconcileFailureCount.incrementAndGet();
+            logger.warn("reconciliation of settings rejected", ree);
+        }
+    }
+
+    @Override
+    public void saveValue(Field field, Object o) throws SettingsException {
+        storage.saveValue(field, o);
+        remember(Collections.singletonList(field), o);
+    }
+
+    @Override
+    protected void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        if (fields.isEmpty()) {
+            return;
+        }
+        if (o == null) {
+            storage.save(fields.get(0).getDeclaringClass());
+        } else {
+            storage.save(o);
+        }
+        remember(fields, o);
+    }
+
+    /**
+     * Changed settings are detected and saved by wrapped storage
+     */
+    @Override
+    public void saveChanged(Class<?> clazz) throws SettingsException {
+        storage.saveChanged(clazz);
+        remember(SettingsClassModel.of(clazz).reflectFields(null), null);
+    }
+
+    /**
+     * Changed settings are detected and saved by wrapped storage
+     */
+    @Override
+    public void saveChanged(Object o) throws SettingsException {
+        storage.saveChanged(o);
+        if (o instanceof SettingsSnapshot) {
+            o = ((SettingsSnapshot<?>) o).get();
+        }
+        remember(SettingsClassModel.of(o.getClass()).reflectFields(o), o);
+    }
+
+    @Override
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        return storage.readValues(names);
+    }
+
+    /*
+     * put current values of fields into snapshot and write it
+     */
+    private void remember(List<Field> fields, Object o)
+            throws SettingsException {
+        record(fields, o);
+        scheduleWrite();
+    }
+
+    /*
+     * mark fields as loaded by this run with their current values
+     */
+    private void record(List<Field> fields, Object o)
+            throws SettingsException {
+        try {
+            for (Field field : fields) {
+                Object value = field.get(o);
+                current.put(settingKey(field), NullValues.mask((value != null)
+                        ? String.valueOf(value) : null));
+            }
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+    }
+
+    /*
+     * changes made while snapshot is written are written by next write
+     */
+    private void scheduleWrite() {
+        if (!writePending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (SettingsException se) {
+                        logger.warn("settings snapshot is not written: "
+                                + se.getMessage(), se);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            writePending.set(false);
+            logger.warn("write of settings snapshot rejected", ree);
+        }
+    }
+
+    /**
+     * Write snapshot file now. Settings of previous snapshot not loaded by
+     * this run are kept.
+     *
+     * @throws SettingsException
+     */
+    public void flush() throws SettingsException {
+        writePending.set(false);
+        SnapshotFile previous = snapshot();
+        synchronized (file) {
+            Map<String, String> values = (previous != null)
+                    ? previous.toMap() : new HashMap<String, String>();
+            for (Map.Entry<String, String> e : current.entrySet()) {
+                values.put(e.getKey(), NullValues.unmask(e.getValue()));
+            }
+            long start = startTiming();
+            boolean success = false;
+            try {
+                SnapshotFile.write(file, values);
+                success = true;
+            } catch (IOException ioe) {
+                throw new SettingsException(ioe);
+            } finally {
+                stopTiming(SettingsMetrics.Operation.FILE_WRITE, start,
+                        success);
+            }
+        }
+    }
+}
@@ -0,0 +1,717 @@
+package org.rspanov.commons.settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+import org.rspanov.commons.settings.metrics.SettingsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This storage keeps settings in append-only log file. Each save appends
+ * records of saved settings to the end of file by one write, the file is
+ * never rewritten in place. The log is replayed into in-memory index when
+ * storage is opened, all reads are served by the index.
+ *
+ * Each record has CRC32 checksum. A record which is cut or damaged by a
+ * crash during write is detected at replay, it and everything after it
+ * are dropped and the file is truncated to the last valid record.
+ *
+ * Records overwritten by later ones are garbage. When garbage exceeds
+ * compaction threshold the log is rewritten in background with live
+ * records only, saves are not blocked during the rewrite.
+ *
+ * The file must be written by one storage only.
+ *
+ * @author rspanov
+ */
+public class LogSettingsStorage extends SettingsStorage {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(LogSettingsStorage.class);
+
+    /**
+     * "RSLG" and format version at the beginning of file
+     */
+    private static final int MAGIC = 0x52534C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * length and checksum before payload of record
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * length of key, null flag and length of value
+     */
+    private static final int MIN_PAYLOAD_SIZE = 9;
+
+    /**
+     * value of setting with size of its record in file
+     */
+    private static final class Entry {
+
+        private final String value;
+        private final int size;
+
+        private Entry(String value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private final String fileName;
+
+    private final Map<String, Entry> index = new HashMap<String, Entry>();
+
+    private FileChannel channel;
+
+    /**
+     * size of log file and size of its live records
+     */
+    private long fileSize;
+    private long liveSize;
+
+    private ExecutorService compactExecutor;
+
+    /**
+     * background compaction is queued or running
+     */
+    private boolean compactionScheduled;
+
+    /**
+     * compaction is running, other one waits for it
+     */
+    private boolean compacting;
+
+    /**
+     * share of garbage in file which starts compaction
+     */
+    private double compactionThreshold = 0.5;
+
+    public synchronized double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public synchronized void setCompactionThreshold(
+            double compactionThreshold) {
+        if (compactionThreshold <= 0 || compactionThreshold >= 1) {
+            throw new IllegalArgumentException("compactionThreshold must be "
+                    + "between 0 and 1: " + compactionThreshold);
+        }
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * files smaller than this size in bytes are never compacted
+     */
+    private long minCompactionSize = 64 * 1024;
+
+    public synchronized long getMinCompactionSize() {
+        return minCompactionSize;
+    }
+
+    public synchronized void setMinCompactionSize(long minCompactionSize) {
+        this.minCompactionSize = minCompactionSize;
+    }
+
+    /**
+     * force appended records to disk before save returns
+     */
+    private boolean sync = true;
+
+    public synchronized boolean isSync() {
+        return sync;
+    }
+
+    public synchronized void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public LogSettingsStorage(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return size of log file in bytes
+     * @throws SettingsException
+     */
+    public synchronized long getFileSize() throws SettingsException {
+        open();
+        return fileSize;
+    }
+
+    /**
+     * @return size of overwritten records in log file in bytes
+     * @throws SettingsException
+     */
+    public synchronized long getGarbageSize() throws SettingsException {
+        open();
+        return fileSize - HEADER_SIZE - liveSize;
+    }
+
+    /*
+     * open log file and replay it into index
+     */
+    private void open() throws SettingsException {
+        if (channel != null) {
+            return;
+        }
+        File file = new File(fileName);
+        long start = startTiming();
+        boolean success = false;
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index.clear();
+            liveSize = 0;
+            fileSize = replay(ch);
+            ch.position(fileSize);
+            channel = ch;
+            success = true;
+        } catch (IOException ioe) {
+            throw new SettingsException(ioe);
+        } finally {
+            if (!success && ch != null) {
+                closeQuietly(ch);
+            }
+            stopTiming(SettingsMetrics.Operation.FILE_READ, start, success);
+        }
+    }
+
+    /*
+     * read all valid records into index, drop the tail torn by crash,
+     * returns size of valid part of file
+     */
+    private long replay(FileChannel ch) throws IOException, SettingsException {
+        long size = ch.size();
+        if (size == 0) {
+            // new file
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            ch.truncate(0);
+            writeFully(ch, header, 0);
+            ch.force(true);
+            return HEADER_SIZE;
+        }
+        if (size < HEADER_SIZE) {
+            throw new SettingsException(fileName
+                    + " is not a settings log file",
+                    SettingsExceptionType.OTHERS);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new SettingsException("log " + fileName + " is too large",
+                    SettingsExceptionType.OTHERS);
+        }
+        byte[] bytes = new byte[(int) size];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining() && ch.read(buf, buf.position()) >= 0) {
+            // read whole file
+        }
+        buf.flip();
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new SettingsException(fileName
+                    + " is not a settings log file",
+                    SettingsExceptionType.OTHERS);
+        }
+        CRC32 crc = new CRC32();
+        int pos = HEADER_SIZE;
+        // offset of damaged records not followed by valid one
+        int damaged = -1;
+        while (pos < bytes.length) {
+            int recordSize = readRecord(buf, pos, crc);
+            if (recordSize > 0) {
+                if (damaged >= 0) {
+                    logger.warn("damaged records of {} bytes at offset {} "
+                            + "of {} are skipped", pos - damaged, damaged,
+                            fileName);
+                    damaged = -1;
+                }
+                pos += recordSize;
+                continue;
+            }
+            if (damaged < 0) {
+                damaged = pos;
+            }
+            int remaining = bytes.length - pos - RECORD_HEADER_SIZE;
+            if (remaining < 0 || buf.getInt(pos) > remaining
+                    || isZero(bytes, pos)) {
+                // record cut by crash at the end of file
+                break;
+            }
+            int length = buf.getInt(pos);
+            if (length < MIN_PAYLOAD_SIZE) {
+                // next records can't be found
+                throw new SettingsException("damaged record at offset "
+                        + pos + " of " + fileName,
+                        SettingsExceptionType.OTHERS);
+            }
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        if (damaged >= 0) {
+            logger.warn("damaged tail of {} bytes at offset {} of {} "
+                    + "is dropped", bytes.length - damaged, damaged,
+                    fileName);
+            ch.truncate(damaged);
+            ch.force(true);
+            return damaged;
+        }
+        return pos;
+    }
+
+    /*
+     * true if file is zero filled from offset, as after crash of append
+     */
+    private static boolean isZero(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * put record at given offset into index, returns size of record or -1
+     * if record is damaged
+     */
+    private int readRecord(ByteBuffer buf, int pos, CRC32 crc) {
+        int limit = buf.limit();
+        if (limit - pos < RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int length = buf.getInt(pos);
+        int checksum = buf.getInt(pos + 4);
+        int payload = pos + RECORD_HEADER_SIZE;
+        if (length < MIN_PAYLOAD_SIZE || length > limit - payload) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(buf.array(), payload, length);
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+        int end = payload + length;
+        int keyLength = buf.getInt(payload);
+        if (keyLength < 0 || keyLength > end - payload - MIN_PAYLOAD_SIZE) {
+            return -1;
+        }
+        String key = new String(buf.array(), payload + 4, keyLength,
+                StandardCharsets.UTF_8);
+        int p = payload + 4 + keyLength;
+        boolean isNull = buf.get(p) != 0;
+        int valueLength = buf.getInt(p + 1);
+        if (valueLength < 0 || valueLength != end - p - 5) {
+            return -1;
+        }
+        String value = isNull ? null : new String(buf.array(), p + 5,
+                valueLength, StandardCharsets.UTF_8);
+        put(key, new Entry(value, RECORD_HEADER_SIZE + length));
+        return RECORD_HEADER_SIZE + length;
+    }
+
+    private void put(String key, Entry entry) {
+        Entry old = index.put(key, entry);
+        if (old != null) {
+            liveSize -= old.size;
+        }
+        liveSize += entry.size;
+    }
+
+    /*
+     * append record of setting to output
+     */
+    private static int encode(DataOutputStream out, String key, String value)
+            throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = (value != null) ? value.getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        ByteBuffer payload = ByteBuffer.allocate(MIN_PAYLOAD_SIZE + k.length
+                + v.length);
+        payload.putInt(k.length).put(k).put((byte) (value == null ? 1 : 0))
+                .putInt(v.length).put(v);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.capacity());
+        out.writeInt(payload.capacity());
+        out.writeInt((int) crc.getValue());
+        out.write(payload.array());
+        return RECORD_HEADER_SIZE + payload.capacity();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf,
+            long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += ch.write(buf, position);
+        }
+    }
+
+    /*
+     * append records of settings to log by one write, index is changed
+     * only after the records are written
+     */
+    private void append(List<String> keys, List<String> values)
+            throws SettingsException {
+        open();
+        long start = startTiming();
+        boolean success = false;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int[] sizes = new int[keys.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = encode(out, keys.get(i), values.get(i));
+            }
+            out.flush();
+            try {
+                writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()),
+                        fileSize);
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException ioe) {
+                // part of records may be written, remove it so the next
+                // records are not appended after damaged one
+                try {
+                    channel.truncate(fileSize);
+                } catch (IOException tioe) {
+                    ioe.addSuppressed(tioe);
+                }
+                throw ioe;
+            }
+            fileSize += bytes.size();
+            for (int i = 0; i < sizes.length; i++) {
+                put(keys.get(i), new Entry(values.get(i), sizes[i]));
+            }
+            success = true;
+        } catch (IOException ioe) {
+            throw new SettingsException(ioe);
+        } finally {
+            stopTiming(SettingsMetrics.Operation.FILE_WRITE, start, success);
+        }
+        compactIfNeeded();
+    }
+
+    /*
+     * schedule background compaction if garbage exceeds threshold
+     */
+    private void compactIfNeeded() {
+        if (!compactionScheduled && channel != null
+                && fileSize >= minCompactionSize
+                && fileSize - HEADER_SIZE - liveSize
+                > fileSize * compactionThreshold) {
+            scheduleCompaction();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactExecutor == null) {
+            compactExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "settings-compact-"
+                                    + new File(fileName).getName());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        compactionScheduled = true;
+        compactExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean compacted = false;
+                try {
+                    compact(true);
+                    compacted = true;
+                } catch (SettingsException se) {
+                    logger.error("compaction of " + fileName + " failed", se);
+                } finally {
+                    synchronized (LogSettingsStorage.this) {
+                        compactionScheduled = false;
+                        if (compacted) {
+                            // garbage appended during compaction is copied
+                            compactIfNeeded();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrite log with live records only. Live records are written into
+     * temporary file without lock of storage, then records appended during
+     * it are copied and the file replaces the log. If other compaction is
+     * running, it waits for it. If storage is closed meanwhile, the log is
+     * left as is.
+     *
+     * @throws SettingsException
+     */
+    public void compact() throws SettingsException {
+        compact(false);
+    }
+
+    /*
+     * background compaction is skipped if storage is closed before it
+     * starts, so it does not open the file again
+     */
+    private void compact(boolean background) throws SettingsException {
+        Map<String, Entry> live;
+        long from;
+        FileChannel source;
+        synchronized (this) {
+            try {
+                while (compacting) {
+                    wait();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SettingsException(ie);
+            }
+            if (background && channel == null) {
+                return;
+            }
+            open();
+            compacting = true;
+            source = channel;
+            live = new HashMap<String, Entry>(index);
+            from = fileSize;
+        }
+        File file = new File(fileName).getAbsoluteFile();
+        File tmp = null;
+        long start = startTiming();
+        boolean success = false;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp",
+                    file.getParentFile());
+            FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                for (Map.Entry<String, Entry> e : live.entrySet()) {
+                    encode(data, e.getKey(), e.getValue().value);
+                }
+                data.flush();
+                writeFully(out, ByteBuffer.wrap(bytes.toByteArray()), 0);
+                long size = bytes.size();
+                synchronized (this) {
+                    if (channel != source) {
+                        // closed during compaction
+                        return;
+                    }
+                    // records appended while live ones were written
+                    ByteBuffer tail = ByteBuffer.allocate(
+                            (int) (fileSize - from));
+                    while (tail.hasRemaining() && channel.read(tail,
+                            from + tail.position()) >= 0) {
+                        // read whole tail
+                    }
+                    tail.flip();
+                    writeFully(out, tail, size);
+                    size += tail.limit();
+                    out.force(true);
+                    out.close();
+                    closeQuietly(channel);
+                    channel = null;
+                    try {
+                        Files.move(tmp.toPath(), file.toPath(),
+                                StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException amnse) {
+                        Files.move(tmp.toPath(), file.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    tmp = null;
+                    FileUtils.syncDirectory(file.getParentFile());
+                    channel = FileChannel.open(file.toPath(),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    fileSize = size;
+                    success = true;
+                }
+            } finally {
+                closeQuietly(out);
+            }
+        } catch (IOException ioe) {
+            throw new SettingsException(ioe);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+            if (tmp != null) {
+                tmp.delete();
+            }
+            stopTiming(SettingsMetrics.Operation.FILE_WRITE, start, success);
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ioe) {
+            logger.warn(ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Close log file and stop compaction, the file is opened and replayed
+     * again on next use of storage
+     */
+    public void close() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = compactExecutor;
+            compactExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                closeQuietly(channel);
+                channel = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void load(Class<?> clazz) throws SettingsException {
+        open();
+        super.load(clazz);
+    }
+
+    @Override
+    public synchronized void load(Object o) throws SettingsException {
+        open();
+        super.load(o);
+    }
+
+    @Override
+    public synchronized void save(Class<?> clazz) throws SettingsException {
+        super.save(clazz);
+    }
+
+    @Override
+    public synchronized void save(Object o) throws SettingsException {
+        super.save(o);
+    }
+
+    @Override
+    public synchronized void saveChanged(Class<?> clazz)
+            throws SettingsException {
+        super.saveChanged(clazz);
+    }
+
+    @Override
+    public synchronized void saveChanged(Object o) throws SettingsException {
+        super.saveChanged(o);
+    }
+
+    @Override
+    public synchronized void syncField(Field field, Object o)
+            throws SettingsException {
+        syncFields(Collections.singletonList(field), o);
+    }
+
+    /**
+     * Missing settings are appended to the log by one write
+     */
+    @Override
+    protected synchronized void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        open();
+        List<Field> missing = new ArrayList<Field>();
+        for (Field field : fields) {
+            Entry entry = index.get(settingKey(field));
+            if (entry == null) {
+                checkFiled(field, o);
+                missing.add(field);
+            } else {
+                applyValue(field, entry.value, o);
+            }
+        }
+        if (!missing.isEmpty()) {
+            appendFields(missing, o);
+        }
+    }
+
+    @Override
+    public synchronized void saveValue(Field field, Object o)
+            throws SettingsException {
+        checkFiled(field, o);
+        appendFields(Collections.singletonList(field), o);
+    }
+
+    /**
+     * All fields are appended to the log by one write
+     */
+    @Override
+    protected synchronized void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        for (Field field : fields) {
+            checkFiled(field, o);
+        }
+        appendFields(fields, o);
+    }
+
+    private void appendFields(List<Field> fields, Object o)
+            throws SettingsException {
+        List<String> keys = new ArrayList<String>(fields.size());
+        List<String> values = new ArrayList<String>(fields.size());
+        try {
+            for (Field field : fields) {
+                Object value = field.get(o);
+                keys.add(settingKey(field));
+                values.add((value != null) ? String.valueOf(value) : null);
+            }
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+        append(keys, values);
+    }
+
+    @Override
+    public synchronized Map<String, String> readValues(
+            Collection<String> names) throws SettingsException {
+        open();
+        Map<String, String> result = new HashMap<String, String>();
+        for (String name : names) {
+            Entry entry = index.get(name);
+            if (entry != null) {
+                result.put(name, entry.value);
+            }
+        }
+        return result;
+    }
+}
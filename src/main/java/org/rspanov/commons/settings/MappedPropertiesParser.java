@@ -0,0 +1,417 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fast parser of .properties files. The file is decoded at once, large
+ * files are memory-mapped and decoded by chunks while they are scanned.
+ * There are no intermediate objects except the resulting keys and values.
+ *
+ * The grammar is the same as of java.util.Properties: comments, line
+ * continuations, key separators and escapes including \\uXXXX.
+ *
+ * Unlike java.util.Properties with a reader, malformed input is not
+ * replaced: a file which is not valid in the given charset is decoded as
+ * ISO-8859-1 with a warning, so files written in legacy encoding are still
+ * read.
+ *
+ * @author rspanov
+ */
+public class MappedPropertiesParser implements PropertiesParser {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(MappedPropertiesParser.class);
+
+    /**
+     * files of this size and larger are memory-mapped and decoded by chunks
+     * to avoid heap copies of them, smaller ones are read as heap buffers
+     * are decoded faster
+     */
+    private static final long MAP_THRESHOLD = 16 * 1024 * 1024;
+
+    /**
+     * characters decoded at once from mapped file
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Override
+    public void parse(File file, Charset charset, Map<String, String> target)
+            throws IOException {
+        CharBuffer chars;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size == 0) {
+                return;
+            }
+            if (size >= MAP_THRESHOLD) {
+                parse(file, channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        size), charset, CHUNK_SIZE, target);
+                return;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // read whole file
+            }
+            bytes.flip();
+            try {
+                chars = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(bytes);
+            } catch (CharacterCodingException cce) {
+                if (charset.equals(StandardCharsets.ISO_8859_1)) {
+                    throw cce;
+                }
+                logger.warn("{} is not valid {}, it is read as ISO-8859-1",
+                        file, charset);
+                bytes.rewind();
+                chars = StandardCharsets.ISO_8859_1.decode(bytes);
+            }
+        } finally {
+            raf.close();
+        }
+        parse(chars.array(), chars.arrayOffset() + chars.position(),
+                chars.arrayOffset() + chars.limit(), target);
+    }
+
+    /**
+     * Parse properties decoding bytes by chunks. Properties are put into
+     * target only if the whole input is decoded by the same charset.
+     *
+     * @param file file of bytes, for logging
+     * @param bytes content of file
+     * @param charset charset of file
+     * @param chunkSize characters decoded at once
+     * @param target map to put properties into
+     * @throws IOException
+     */
+    static void parse(File file, ByteBuffer bytes, Charset charset,
+            int chunkSize, Map<String, String> target) throws IOException {
+        Map<String, String> parsed = new HashMap<String, String>();
+        try {
+            new Scanner(bytes, charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT),
+                    chunkSize).parse(parsed);
+        } catch (CharacterCodingException cce) {
+            if (charset.equals(StandardCharsets.ISO_8859_1)) {
+                throw cce;
+            }
+            logger.warn("{} is not valid {}, it is read as ISO-8859-1",
+                    file, charset);
+            bytes.rewind();
+            parsed.clear();
+            new Scanner(bytes, StandardCharsets.ISO_8859_1.newDecoder(),
+                    chunkSize).parse(parsed);
+        }
+        target.putAll(parsed);
+    }
+
+    /**
+     * Parse properties from characters
+     *
+     * @param in characters of .properties file
+     * @param from index of first character
+     * @param to index after last character
+     * @param target map to put properties into
+     */
+    static void parse(char[] in, int from, int to, Map<String, String> target) {
+        try {
+            new Scanner(in, from, to).parse(target);
+        } catch (CharacterCodingException cce) {
+            // characters are decoded already
+            throw new IllegalStateException(cce);
+        }
+    }
+
+    /*
+     * scanner state, line and output buffers are reused for all lines
+     */
+    private static final class Scanner {
+
+        /**
+         * decoded characters, the whole input or the current chunk
+         */
+        private char[] in;
+        private int to;
+        private int pos;
+        private char[] line = new char[128];
+        private int lineLen;
+        private char[] out = new char[128];
+
+        /**
+         * undecoded input, null if the whole input is decoded
+         */
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private boolean flushing;
+        private boolean done;
+
+        private Scanner(char[] in, int from, int to) {
+            this.in = in;
+            this.pos = from;
+            this.to = to;
+            this.bytes = null;
+            this.decoder = null;
+        }
+
+        private Scanner(ByteBuffer bytes, CharsetDecoder decoder,
+                int chunkSize) {
+            this.in = new char[chunkSize];
+            this.bytes = bytes;
+            this.decoder = decoder;
+        }
+
+        /*
+         * decode next chunk when all characters are scanned, returns false
+         * at the end of input
+         */
+        private boolean fill() throws CharacterCodingException {
+            if (bytes == null || done) {
+                return false;
+            }
+            CharBuffer chars = CharBuffer.wrap(in);
+            CoderResult result = flushing ? CoderResult.UNDERFLOW
+                    : decoder.decode(bytes, chars, true);
+            if (result.isUnderflow()) {
+                flushing = true;
+                result = decoder.flush(chars);
+                done = result.isUnderflow();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            pos = 0;
+            to = chars.position();
+            return to > 0 || fill();
+        }
+
+        private void parse(Map<String, String> target)
+                throws CharacterCodingException {
+            while (true) {
+                readLine();
+                if (lineLen < 0) {
+                    return;
+                }
+                putProperty(target);
+            }
+        }
+
+        /*
+         * read next logical line without comments, leading white space and
+         * line continuations, lineLen is -1 at the end of input. It follows
+         * java.util.Properties: comment starts only at the beginning of
+         * logical line, also when it is continued from an empty line, so
+         * '#' after "key=a\\" is a part of value. Backslash at the end of
+         * input is dropped.
+         */
+        private void readLine() throws CharacterCodingException {
+            char[] src = in;
+            int end = to;
+            int p = pos;
+            char[] buf = line;
+            int len = 0;
+            boolean skipWhiteSpace = true;
+            boolean appendedLineBegin = false;
+            boolean precedingBackslash = false;
+            while (true) {
+                if (p >= end) {
+                    if (!fill()) {
+                        len = (len == 0) ? -1
+                                : (precedingBackslash ? len - 1 : len);
+                        break;
+                    }
+                    src = in;
+                    p = pos;
+                    end = to;
+                }
+                char c = src[p++];
+                if (skipWhiteSpace) {
+                    if (isWhiteSpace(c)) {
+                        continue;
+                    }
+                    if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+                        continue;
+                    }
+                    skipWhiteSpace = false;
+                    appendedLineBegin = false;
+                }
+                if (len == 0 && (c == '#' || c == '!')) {
+                    // comment, skip the rest of natural line
+                    while (p < end || fill()) {
+                        if (p >= end) {
+                            src = in;
+                            p = pos;
+                            end = to;
+                        }
+                        c = src[p++];
+                        if (c == '\r' || c == '\n') {
+                            break;
+                        }
+                    }
+                    skipWhiteSpace = true;
+                    continue;
+                }
+                if (c != '\n' && c != '\r') {
+                    if (len == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    buf[len++] = c;
+                    precedingBackslash = (c == '\\') && !precedingBackslash;
+                } else if (len == 0) {
+                    skipWhiteSpace = true;
+                } else {
+                    if (p >= end && fill()) {
+                        src = in;
+                        p = pos;
+                        end = to;
+                    }
+                    if (p >= end) {
+                        if (precedingBackslash) {
+                            len--;
+                        }
+                        break;
+                    } else if (precedingBackslash) {
+                        // line continues on the next natural line
+                        len--;
+                        skipWhiteSpace = true;
+                        appendedLineBegin = true;
+                        precedingBackslash = false;
+                        if (c == '\r' && src[p] == '\n') {
+                            p++;
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            }
+            pos = p;
+            line = buf;
+            lineLen = len;
+        }
+
+        /*
+         * split logical line into key and value
+         */
+        private void putProperty(Map<String, String> target) {
+            int limit = lineLen;
+            int keyLen = 0;
+            int valueStart = limit;
+            boolean hasSep = false;
+            boolean precedingBackslash = false;
+            boolean escaped = false;
+            while (keyLen < limit) {
+                char c = line[keyLen];
+                if ((c == '=' || c == ':') && !precedingBackslash) {
+                    valueStart = keyLen + 1;
+                    hasSep = true;
+                    break;
+                } else if (isWhiteSpace(c) && !precedingBackslash) {
+                    valueStart = keyLen + 1;
+                    break;
+                }
+                if (c == '\\') {
+                    precedingBackslash = !precedingBackslash;
+                    escaped = true;
+                } else {
+                    precedingBackslash = false;
+                }
+                keyLen++;
+            }
+            while (valueStart < limit) {
+                char c = line[valueStart];
+                if (!isWhiteSpace(c)) {
+                    if (!hasSep && (c == '=' || c == ':')) {
+                        hasSep = true;
+                    } else {
+                        break;
+                    }
+                }
+                valueStart++;
+            }
+            String key = escaped ? unescape(0, keyLen)
+                    : new String(line, 0, keyLen);
+            target.put(key, unescape(valueStart, limit));
+        }
+
+        /*
+         * convert escaped characters
+         */
+        private String unescape(int from, int end) {
+            int first = from;
+            while (first < end && line[first] != '\\') {
+                first++;
+            }
+            if (first == end) {
+                return new String(line, from, end - from);
+            }
+            if (out.length < end - from) {
+                out = new char[end - from];
+            }
+            int outLen = first - from;
+            System.arraycopy(line, from, out, 0, outLen);
+            int p = first;
+            while (p < end) {
+                char c = line[p++];
+                if (c != '\\') {
+                    out[outLen++] = c;
+                    continue;
+                }
+                if (p == end) {
+                    break;
+                }
+                c = line[p++];
+                if (c == 'u') {
+                    if (p + 4 > end) {
+                        throw new IllegalArgumentException(
+                                "Malformed \\uxxxx encoding.");
+                    }
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(line[p++], 16);
+                        if (digit < 0) {
+                            throw new IllegalArgumentException(
+                                    "Malformed \\uxxxx encoding.");
+                        }
+                        value = (value << 4) + digit;
+                    }
+                    out[outLen++] = (char) value;
+                } else if (c == 't') {
+                    out[outLen++] = '\t';
+                } else if (c == 'r') {
+                    out[outLen++] = '\r';
+                } else if (c == 'n') {
+                    out[outLen++] = '\n';
+                } else if (c == 'f') {
+                    out[outLen++] = '\f';
+                } else {
+                    out[outLen++] = c;
+                }
+            }
+            return new String(out, 0, outLen);
+        }
+    }
+
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * This storage keeps settings in memory only. It is used as a layer of
+ * CompositeSettingsStorage for overrides set at runtime, and by tests.
+ *
+ * @author rspanov
+ */
+public class MemorySettingsStorage extends SettingsStorage {
+
+    /**
+     * null is masked by NullValues
+     */
+    private final ConcurrentMap<String, String> settings
+            = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Set value of setting, fields get it on next load
+     *
+     * @param key key of setting
+     * @param value value in String representation
+     */
+    public void put(String key, String value) {
+        settings.put(key, NullValues.mask(value));
+    }
+
+    /**
+     * Remove setting from storage
+     *
+     * @param key key of setting
+     */
+    public void remove(String key) {
+        settings.remove(key);
+    }
+
+    @Override
+    public void syncField(Field field, Object o) throws SettingsException {
+        String value = settings.get(settingKey(field));
+        if (value == null) {
+            saveValue(field, o);
+        } else {
+            applyValue(field, NullValues.unmask(value), o);
+        }
+    }
+
+    @Override
+    public void saveValue(Field field, Object o) throws SettingsException {
+        checkFiled(field, o);
+        try {
+            Object value = field.get(o);
+            put(settingKey(field), (value != null) ? String.valueOf(value)
+                    : null);
+        } catch (IllegalAccessException iae) {
+            throw new SettingsException(iae);
+        }
+    }
+
+    @Override
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        Map<String, String> result = new HashMap<String, String>();
+        for (String name : names) {
+            String value = settings.get(name);
+            if (value != null) {
+                result.put(name, NullValues.unmask(value));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Masks null values of settings kept in ConcurrentHashMap, which doesn't
+ * allow null. Mask is compared by identity, so it never equals a stored
+ * "null" string.
+ *
+ * @author rspanov
+ */
+final class NullValues {
+
+    private static final String NULL = new String("null");
+
+    private NullValues() {
+    }
+
+    /**
+     * @param value value of setting, may be null
+     * @return value or mask of null
+     */
+    static String mask(String value) {
+        return (value != null) ? value : NULL;
+    }
+
+    /**
+     * @param value masked value
+     * @return value or null if it is mask
+     */
+    static String unmask(String value) {
+        return (value == NULL) ? null : value;
+    }
+}
@@ -0,0 +1,26 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Parser of .properties files used by PropertySettingStorage
+ *
+ * @author rspanov
+ */
+public interface PropertiesParser {
+
+    /**
+     * Parse file and put all its properties into target map
+     *
+     * @param file existing .properties file
+     * @param charset charset of file
+     * @param target map to put properties into
+     * @throws IOException
+     */
+    void parse(File file, Charset charset, Map<String, String> target)
+            throws IOException;
+
+}
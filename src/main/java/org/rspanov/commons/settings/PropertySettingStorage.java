@@ -1,36 +1,155 @@
 package org.rspanov.commons.settings;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.rspanov.commons.settings.exceptions.SettingsException;
 import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+import org.rspanov.commons.settings.metrics.SettingsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * This simple storage allow to store settings in .properties file
- * using default java.util.Properties
+ * This simple storage allow to store settings in .properties file.
+ * The file is parsed by MappedPropertiesParser by default, the parser and
+ * the charset of file (UTF-8 by default) are configurable. A file which is
+ * not valid UTF-8, e.g. written in ISO-8859-1 by older versions, is read as
+ * ISO-8859-1 by the default parser.
  * 
- * Using this way the descriptions of fields will not be stored
+ * Using this way the descriptions of fields will not be stored.
+ * The file is parsed again only if it was changed since the last load,
+ * and it can be watched for changes to reload registered settings.
  *
  * @author rspanov
  */
 public class PropertySettingStorage extends SettingsStorage {
 
-    private Properties settings;
+    private static final Logger logger = LoggerFactory
+            .getLogger(PropertySettingStorage.class);
+
+    private Map<String, String> settings;
     private String fileName;
     private boolean modified;
 
+    /**
+     * modification time and length of file when it was parsed last time,
+     * the file is parsed again only if one of them is changed
+     */
+    private long parsedModified = -1;
+    private long parsedLength = -1;
+
+    /**
+     * interval of file checks in watch mode, milliseconds
+     */
+    private volatile long watchInterval = 1000;
+
+    public long getWatchInterval() {
+        return watchInterval;
+    }
+
+    public void setWatchInterval(long watchInterval) {
+        this.watchInterval = watchInterval;
+    }
+
+    private volatile Thread watcher;
+
+    /**
+     * charset of properties file
+     */
+    private Charset charset = StandardCharsets.UTF_8;
+
+    public synchronized Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Set charset of file, changes not written yet are written with the
+     * previous charset first
+     *
+     * @param charset charset of file
+     * @throws SettingsException if changes can't be written
+     */
+    public synchronized void setCharset(Charset charset)
+            throws SettingsException {
+        flush();
+        this.charset = charset;
+        this.settings = null;
+    }
+
+    /**
+     * parser of properties file
+     */
+    private PropertiesParser parser = new MappedPropertiesParser();
+
+    public synchronized PropertiesParser getParser() {
+        return parser;
+    }
+
+    /**
+     * Set parser of file, changes not written yet are written first
+     *
+     * @param parser parser of file
+     * @throws SettingsException if changes can't be written
+     */
+    public synchronized void setParser(PropertiesParser parser)
+            throws SettingsException {
+        flush();
+        this.parser = parser;
+        this.settings = null;
+    }
+
+    /**
+     * delay of file writing, milliseconds. Changes saved during the delay
+     * are written together by one write. If it is 0 the file is written
+     * on each save. Changes not written yet are written by flush, close
+     * and on shutdown of JVM.
+     */
+    private long writeDelay;
+
+    public synchronized long getWriteDelay() {
+        return writeDelay;
+    }
+
+    public synchronized void setWriteDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    private ScheduledExecutorService writeExecutor;
+    private ScheduledFuture<?> pendingWrite;
+    private Thread shutdownHook;
+
     @Override
     public void syncField(Field field, Object o) throws SettingsException {
         try {
-            if (settings.getProperty(field.getName()) == null) {
+            String value = settings.get(settingKey(field));
+            if (value == null) {
                 saveValue(field, o);
             } else {
-                String value = settings.getProperty(field.getName());
-                setField(field, value, o);
+                applyValue(field, value, o);
             }
         } catch (SettingsException se) {
             throw se;
@@ -40,28 +159,194 @@ public class PropertySettingStorage extends SettingsStorage {
     }
 
     private void loadProperties() throws SettingsException {
+        File file = new File(fileName);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (settings != null && !modified && (pendingWrite != null
+                || (lastModified == parsedModified && length == parsedLength))) {
+            // memory holds changes not written yet, they are newer than file
+            return;
+        }
         modified = false;
+        parsedModified = -1;
+        long start = startTiming();
+        boolean success = false;
         try {
-            this.settings = new Properties();
-            if (new File(fileName).exists()) {
-                this.settings.load(new FileReader(fileName));
+            this.settings = new HashMap<String, String>();
+            if (file.exists()) {
+                parser.parse(file, charset, this.settings);
             }
+            success = true;
         } catch (IOException ioe) {
             throw new SettingsException(ioe);
+        } catch (IllegalArgumentException iae) {
+            // malformed unicode escape
+            throw new SettingsException(iae);
+        } finally {
+            stopTiming(SettingsMetrics.Operation.FILE_READ, start, success);
+        }
+        parsedModified = lastModified;
+        parsedLength = length;
+    }
+
+    /*
+     * check if file was changed since it was parsed
+     */
+    private synchronized boolean isFileChanged() {
+        if (pendingWrite != null) {
+            return false;
         }
+        File file = new File(fileName);
+        return file.lastModified() != parsedModified
+                || file.length() != parsedLength;
     }
 
     private void saveProperties() throws SettingsException {
+        modified = false;
+        if (writeDelay > 0) {
+            scheduleWrite();
+        } else {
+            writeProperties();
+        }
+    }
+
+    /*
+     * write properties into temporary file, sync it to disk and move it
+     * over the settings file, so the file is never seen half written
+     */
+    private void writeProperties() throws SettingsException {
+        parsedModified = -1;
+        File file = new File(fileName).getAbsoluteFile();
+        File tmp = null;
+        long start = startTiming();
+        boolean success = false;
         try {
-            FileWriter fw = new FileWriter(fileName);
+            tmp = File.createTempFile(file.getName(), ".tmp",
+                    file.getParentFile());
+            FileOutputStream fos = new FileOutputStream(tmp);
             try {
-                this.settings.store(fw, "");
-                fw.flush();
+                Properties props = new Properties();
+                props.putAll(this.settings);
+                if (charset.equals(StandardCharsets.ISO_8859_1)
+                        || charset.equals(StandardCharsets.US_ASCII)) {
+                    // other characters are written as unicode escapes
+                    props.store(fos, "");
+                } else {
+                    // don't replace unmappable characters with '?'
+                    Writer writer = new OutputStreamWriter(fos, charset
+                            .newEncoder()
+                            .onMalformedInput(CodingErrorAction.REPORT)
+                            .onUnmappableCharacter(CodingErrorAction.REPORT));
+                    props.store(writer, "");
+                    writer.flush();
+                }
+                fos.getFD().sync();
             } finally {
-                fw.close();
+                fos.close();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
             }
+            tmp = null;
+            FileUtils.syncDirectory(file.getParentFile());
+            success = true;
         } catch (IOException ioe) {
             throw new SettingsException(ioe);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            stopTiming(SettingsMetrics.Operation.FILE_WRITE, start, success);
+        }
+        parsedModified = file.lastModified();
+        parsedLength = file.length();
+    }
+
+    private void scheduleWrite() {
+        if (pendingWrite != null) {
+            return;
+        }
+        if (writeExecutor == null) {
+            writeExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "settings-write-"
+                                    + new File(fileName).getName());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (SettingsException se) {
+                        logger.error("write of " + fileName
+                                + " on shutdown failed", se);
+                    }
+                }
+            }, "settings-write-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        pendingWrite = writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (SettingsException se) {
+                    logger.error("write of " + fileName + " failed", se);
+                }
+            }
+        }, writeDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write pending changes into the file now
+     *
+     * @throws SettingsException
+     */
+    public synchronized void flush() throws SettingsException {
+        if (pendingWrite == null) {
+            return;
+        }
+        pendingWrite.cancel(false);
+        pendingWrite = null;
+        writeProperties();
+    }
+
+    /**
+     * Stop watching of file, write pending changes and release
+     * background threads
+     *
+     * @throws SettingsException
+     */
+    public void close() throws SettingsException {
+        stopWatching();
+        ScheduledExecutorService executor;
+        Thread hook;
+        synchronized (this) {
+            flush();
+            executor = writeExecutor;
+            writeExecutor = null;
+            hook = shutdownHook;
+            shutdownHook = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (hook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ise) {
+                // JVM is shutting down already
+            }
         }
     }
 
@@ -73,7 +358,7 @@ public class PropertySettingStorage extends SettingsStorage {
     }
 
     @Override
-    public void load(Class<?> clazz) throws SettingsException {
+    public synchronized void load(Class<?> clazz) throws SettingsException {
         loadProperties();
         super.load(clazz);
         if (modified) {
@@ -82,7 +367,7 @@ public class PropertySettingStorage extends SettingsStorage {
     }
 
     @Override
-    public void load(Object o) throws SettingsException {
+    public synchronized void load(Object o) throws SettingsException {
         loadProperties();
         super.load(o);
         if (modified) {
@@ -91,31 +376,164 @@ public class PropertySettingStorage extends SettingsStorage {
     }
 
     @Override
-    public void save(Class<?> clazz) throws SettingsException {
-        this.settings = new Properties();
+    public synchronized void save(Class<?> clazz) throws SettingsException {
+        // settings of other classes in the file are kept
+        loadProperties();
         super.save(clazz);
         saveProperties();
     }
 
     @Override
-    public void save(Object o) throws SettingsException {
-        this.settings = new Properties();
+    public synchronized void save(Object o) throws SettingsException {
+        // settings of other classes in the file are kept
+        loadProperties();
         super.save(o);
         saveProperties();
     }
 
+    /**
+     * Changed settings are put into the settings read from file, so the
+     * other settings in file are kept. File is not written if nothing is
+     * changed.
+     */
+    @Override
+    public synchronized void saveChanged(Class<?> clazz)
+            throws SettingsException {
+        loadProperties();
+        super.saveChanged(clazz);
+        if (modified) {
+            saveProperties();
+        }
+    }
+
+    /**
+     * Changed settings are put into the settings read from file, so the
+     * other settings in file are kept. File is not written if nothing is
+     * changed.
+     */
+    @Override
+    public synchronized void saveChanged(Object o) throws SettingsException {
+        loadProperties();
+        super.saveChanged(o);
+        if (modified) {
+            saveProperties();
+        }
+    }
+
     @Override
     public void saveValue(Field field, Object o) throws SettingsException {
         try {
             if (field.get(o) == null) {
                 throw new SettingsException("field " + field.getName() + " can't be null in properties", SettingsExceptionType.RESTRICTED_NULL_VALUE, field.getName(), null);
             }
-            settings.put(field.getName(), String.valueOf(field.get(o)));
+            settings.put(settingKey(field), String.valueOf(field.get(o)));
             modified = true;
         } catch (Exception ex) {
             throw new SettingsException(ex);
         }
     }
 
+    @Override
+    public synchronized Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        loadProperties();
+        Map<String, String> result = new HashMap<String, String>();
+        for (String name : names) {
+            String value = settings.get(name);
+            if (value != null) {
+                result.put(name, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start watching of file in background. When the file is changed it is
+     * parsed again and the new values are loaded into registered classes
+     * and instances. File system notifications are used when available,
+     * and the modification time and length of file are checked every
+     * watch interval in any case.
+     *
+     * @see SettingsStorage#register(java.lang.Class)
+     */
+    public synchronized void startWatching() {
+        if (watcher != null) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "settings-watch-" + new File(fileName).getName());
+        t.setDaemon(true);
+        watcher = t;
+        t.start();
+    }
+
+    /**
+     * Stop watching of file
+     */
+    public synchronized void stopWatching() {
+        Thread t = watcher;
+        watcher = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    public boolean isWatching() {
+        return watcher != null;
+    }
+
+    private void watch() {
+        Path file = Paths.get(fileName).toAbsolutePath();
+        WatchService ws = null;
+        try {
+            ws = file.getFileSystem().newWatchService();
+            file.getParent().register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (Exception ex) {
+            logger.warn("file system notifications are not available for "
+                    + file + ", only polling is used", ex);
+            closeQuietly(ws);
+            ws = null;
+        }
+        try {
+            while (watcher == Thread.currentThread()) {
+                if (ws != null) {
+                    // any event only wakes the watcher up earlier,
+                    // change of file is always confirmed by its stamp
+                    WatchKey key = ws.poll(watchInterval, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(watchInterval);
+                }
+                if (isFileChanged()) {
+                    reloadRegistered();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException cwse) {
+            logger.warn("watching of " + file + " is stopped", cwse);
+        } finally {
+            closeQuietly(ws);
+        }
+    }
+
+    private static void closeQuietly(WatchService ws) {
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException ioe) {
+                logger.warn(ioe.getMessage(), ioe);
+            }
+        }
+    }
 
 }
@@ -0,0 +1,110 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Holder of setting of reference type for reading on hot paths. Reads are
+ * volatile, so values set by storage are safely published to all threads,
+ * and do not lock or allocate. The reference is padded against false
+ * sharing with other objects.
+ *
+ * Supported types are String, enums and Integer, Long, Double, Boolean.
+ * Value can't be null, as storages keep null only for missing settings.
+ * Declare it as a field annotated with @Setting, storage updates the value
+ * in place, so the field may be final:
+ * <pre>
+ * &#64;Setting(description = "...")
+ * private final RefSetting&lt;String&gt; host
+ *         = new RefSetting&lt;String&gt;(String.class, "localhost");
+ * </pre>
+ *
+ * @param <T> type of value
+ * @author rspanov
+ */
+public final class RefSetting<T> extends RefSettingValue {
+
+    long q1, q2, q3, q4, q5, q6, q7;
+
+    private final Class<T> type;
+
+    /**
+     * @param type type of value
+     * @param value initial value
+     * @throws IllegalArgumentException if type is not supported or value is
+     * null
+     */
+    public RefSetting(Class<T> type, T value) {
+        if (type != String.class && !type.isEnum() && type != Integer.class
+                && type != Long.class && type != Double.class
+                && type != Boolean.class) {
+            throw new IllegalArgumentException("unsupported type of setting: "
+                    + type.getName());
+        }
+        this.type = type;
+        this.value = checkNotNull(value);
+    }
+
+    private static <V> V checkNotNull(V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value of setting can't be "
+                    + "null");
+        }
+        return value;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public T get() {
+        return type.cast(value);
+    }
+
+    /**
+     * @param value new value
+     * @throws IllegalArgumentException if value is null
+     */
+    public void set(T value) {
+        this.value = checkNotNull(value);
+    }
+
+    /**
+     * Convert value from String representation and set it
+     *
+     * @param value value in String representation
+     * @throws IllegalArgumentException if value is null or can't be
+     * converted
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void parse(String value) {
+        Object v;
+        if (value == null) {
+            throw new IllegalArgumentException("value of setting can't be "
+                    + "null");
+        } else if (type == String.class) {
+            v = value;
+        } else if (type.isEnum()) {
+            v = Enum.valueOf(type.asSubclass(Enum.class), value);
+        } else if (type == Integer.class) {
+            v = Integer.valueOf(value);
+        } else if (type == Long.class) {
+            v = Long.valueOf(value);
+        } else if (type == Double.class) {
+            v = Double.valueOf(value);
+        } else {
+            v = Boolean.valueOf(value);
+        }
+        this.value = v;
+    }
+
+    @Override
+    public String toString() {
+        return value.toString();
+    }
+}
+
+/*
+ * value of setting placed between paddings
+ */
+abstract class RefSettingValue extends SettingPadding {
+
+    volatile Object value;
+}
@@ -0,0 +1,25 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+
+/**
+ * Listener of settings changed in data source. It is called by storage
+ * after the new value is put into the field, only if the value differs from
+ * the one applied before by the same storage.
+ *
+ * @author rspanov
+ */
+public interface SettingChangeListener {
+
+    /**
+     * Setting is changed
+     *
+     * @param field the field of class
+     * @param oldValue previous value in String representation
+     * @param newValue new value in String representation
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     */
+    void settingChanged(Field field, String oldValue, String newValue,
+            Object o);
+}
@@ -0,0 +1,103 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import org.rspanov.commons.settings.ann.Setting;
+
+/**
+ * Immutable description of one field annotated with @Setting.
+ * All reflective data of field is resolved once when the class model
+ * is built.
+ *
+ * @author rspanov
+ */
+final class SettingField {
+
+    private final Field field;
+    private final Setting setting;
+    private final String name;
+    private final String key;
+    private final boolean nullable;
+    private final boolean staticField;
+    private final SettingType type;
+    private final SettingsBinder binder;
+    private final int binderIndex;
+
+    SettingField(Field field, Setting setting, String key,
+            SettingsBinder binder, int binderIndex) {
+        this.field = field;
+        this.setting = setting;
+        this.name = field.getName();
+        this.key = key;
+        this.nullable = setting.nullable();
+        this.staticField = Modifier.isStatic(field.getModifiers());
+        this.type = SettingType.of(field.getType());
+        this.binder = binder;
+        this.binderIndex = binderIndex;
+    }
+
+    /**
+     * Convert value and put it into the field, by generated binder
+     * if it is available, otherwise by reflection
+     *
+     * @param value the field value in String representation
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @throws Exception
+     */
+    void set(String value, Object o) throws Exception {
+        if (binder != null) {
+            binder.set(binderIndex, o, value);
+        } else {
+            type.apply(field, value, o);
+        }
+    }
+
+    /**
+     * Get value of the field
+     *
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @return value of field
+     * @throws IllegalAccessException
+     */
+    Object get(Object o) throws IllegalAccessException {
+        return (binder != null) ? binder.get(binderIndex, o) : field.get(o);
+    }
+
+    Field getField() {
+        return field;
+    }
+
+    Setting getSetting() {
+        return setting;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return key of setting in data source, field name prefixed with
+     * namespace of class if it has one
+     */
+    String getKey() {
+        return key;
+    }
+
+    String getDescription() {
+        return setting.description();
+    }
+
+    boolean isNullable() {
+        return nullable;
+    }
+
+    boolean isStatic() {
+        return staticField;
+    }
+
+    SettingType getType() {
+        return type;
+    }
+}
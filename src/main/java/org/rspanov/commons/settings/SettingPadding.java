@@ -0,0 +1,14 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Padding before the value of setting handle. JVM puts fields of superclass
+ * first, so the value declared by subclass is separated by a cache line
+ * from the object header and fields of objects allocated before it. The
+ * handle itself pads the value from the objects allocated after it.
+ *
+ * @author rspanov
+ */
+abstract class SettingPadding {
+
+    long p1, p2, p3, p4, p5, p6, p7;
+}
@@ -0,0 +1,229 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+
+/**
+ * Supported types of setting fields. Each type knows how to convert the
+ * String representation of value and put it into the field, so the
+ * conversion is resolved once per field instead of on every assignment.
+ *
+ * @author rspanov
+ */
+enum SettingType {
+
+    ATOMIC_BOOLEAN {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            if (value == null) {
+                field.set(o, null);
+            } else {
+                AtomicBoolean current = (AtomicBoolean) field.get(o);
+                if (current == null) {
+                    field.set(o, new AtomicBoolean(Boolean.parseBoolean(value)));
+                } else {
+                    current.set(Boolean.parseBoolean(value));
+                }
+            }
+        }
+    },
+    ATOMIC_LONG {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            if (value == null) {
+                field.set(o, null);
+            } else {
+                AtomicLong current = (AtomicLong) field.get(o);
+                if (current == null) {
+                    field.set(o, new AtomicLong(Long.parseLong(value)));
+                } else {
+                    current.set(Long.parseLong(value));
+                }
+            }
+        }
+    },
+    ATOMIC_INTEGER {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            if (value == null) {
+                field.set(o, null);
+            } else {
+                AtomicInteger current = (AtomicInteger) field.get(o);
+                if (current == null) {
+                    field.set(o, new AtomicInteger(Integer.parseInt(value)));
+                } else {
+                    current.set(Integer.parseInt(value));
+                }
+            }
+        }
+    },
+    STRING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            field.set(o, value);
+        }
+    },
+    INT {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            field.setInt(o, Integer.parseInt(value));
+        }
+    },
+    LONG {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            field.setLong(o, Long.parseLong(value));
+        }
+    },
+    DOUBLE {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            field.setDouble(o, Double.parseDouble(value));
+        }
+    },
+    BOOLEAN {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            field.setBoolean(o, Boolean.parseBoolean(value));
+        }
+    },
+    ENUM {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void apply(Field field, String value, Object o) throws Exception {
+            try {
+                field.set(o, Enum.valueOf(
+                        field.getType().asSubclass(Enum.class), value));
+            } catch (IllegalArgumentException iae) {
+                throw new SettingsException(iae.getMessage(),
+                        SettingsExceptionType.INVALID_VALUE_EXCEPTION,
+                        field.getName(), value);
+            }
+        }
+    },
+    INT_SETTING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            int v = Integer.parseInt(value);
+            IntSetting current = (IntSetting) field.get(o);
+            if (current == null) {
+                field.set(o, new IntSetting(v));
+            } else {
+                current.set(v);
+            }
+        }
+    },
+    LONG_SETTING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            long v = Long.parseLong(value);
+            LongSetting current = (LongSetting) field.get(o);
+            if (current == null) {
+                field.set(o, new LongSetting(v));
+            } else {
+                current.set(v);
+            }
+        }
+    },
+    DOUBLE_SETTING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            double v = Double.parseDouble(value);
+            DoubleSetting current = (DoubleSetting) field.get(o);
+            if (current == null) {
+                field.set(o, new DoubleSetting(v));
+            } else {
+                current.set(v);
+            }
+        }
+    },
+    BOOLEAN_SETTING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            boolean v = Boolean.parseBoolean(value);
+            BooleanSetting current = (BooleanSetting) field.get(o);
+            if (current == null) {
+                field.set(o, new BooleanSetting(v));
+            } else {
+                current.set(v);
+            }
+        }
+    },
+    REF_SETTING {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            RefSetting<?> current = (RefSetting<?>) field.get(o);
+            if (current == null) {
+                // type of value is known only to initialized handle
+                throw new SettingsException("field " + field.getName()
+                        + " must be initialized",
+                        SettingsExceptionType.INVALID_TYPE_EXCEPTION,
+                        field.getName(), value);
+            }
+            current.parse(value);
+        }
+    },
+    UNSUPPORTED {
+        @Override
+        void apply(Field field, String value, Object o) throws Exception {
+            throw new SettingsException("field " + field.getName()
+                    + " has unsupported type",
+                    SettingsExceptionType.INVALID_TYPE_EXCEPTION,
+                    field.getName(), null);
+        }
+    };
+
+    /**
+     * Convert value and put it into the field
+     *
+     * @param field the field of class
+     * @param value the field value in String representation
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @throws Exception
+     */
+    abstract void apply(Field field, String value, Object o) throws Exception;
+
+    /**
+     * Resolve setting type by the java type of field
+     *
+     * @param ft type of field
+     * @return setting type, UNSUPPORTED if type can't be stored
+     */
+    static SettingType of(Class<?> ft) {
+        if (ft == AtomicBoolean.class) {
+            return ATOMIC_BOOLEAN;
+        } else if (ft == AtomicLong.class) {
+            return ATOMIC_LONG;
+        } else if (ft == AtomicInteger.class) {
+            return ATOMIC_INTEGER;
+        } else if (ft == String.class) {
+            return STRING;
+        } else if (ft == Integer.TYPE) {
+            return INT;
+        } else if (ft == Long.TYPE) {
+            return LONG;
+        } else if (ft == Double.TYPE) {
+            return DOUBLE;
+        } else if (ft == Boolean.TYPE) {
+            return BOOLEAN;
+        } else if (ft.isEnum()) {
+            return ENUM;
+        } else if (ft == IntSetting.class) {
+            return INT_SETTING;
+        } else if (ft == LongSetting.class) {
+            return LONG_SETTING;
+        } else if (ft == DoubleSetting.class) {
+            return DOUBLE_SETTING;
+        } else if (ft == BooleanSetting.class) {
+            return BOOLEAN_SETTING;
+        } else if (ft == RefSetting.class) {
+            return REF_SETTING;
+        }
+        return UNSUPPORTED;
+    }
+}
@@ -0,0 +1,53 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Binder reads and writes setting fields of one class directly, without
+ * reflection. Binders are generated at compile time by the annotation
+ * processor of rsp-commons-settings-processor and are picked up by
+ * SettingsStorage automatically, fields not handled by binder are
+ * accessed by reflection.
+ *
+ * Binder of class a.b.Outer$Inner must be named
+ * a.b.Outer$$Inner_SettingsBinder and have public no-arg constructor.
+ * '$' of binary name is doubled, so it doesn't clash with binders of
+ * a.b.Outer_Inner or a.b.Outer$$Inner.
+ *
+ * @author rspanov
+ */
+public interface SettingsBinder {
+
+    /**
+     * suffix of binder class name
+     */
+    String SUFFIX = "_SettingsBinder";
+
+    /**
+     * Get names of settings handled by binder. Index of name in the array
+     * is used as id of the setting in set and get methods.
+     *
+     * @return names of setting fields
+     */
+    String[] names();
+
+    /**
+     * Convert value and put it into the field
+     *
+     * @param index index of setting in names array
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @param value value of setting in String representation
+     * @throws Exception if value can't be converted
+     */
+    void set(int index, Object o, String value) throws Exception;
+
+    /**
+     * Get value of the field
+     *
+     * @param index index of setting in names array
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @return value of field
+     */
+    Object get(int index, Object o);
+
+}
@@ -0,0 +1,194 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.rspanov.commons.settings.ann.Setting;
+import org.rspanov.commons.settings.ann.SettingsNamespace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable per-class plan of settings: annotated fields split into
+ * static and instance ones with resolved types. Fields handled by the
+ * generated binder of class are accessed through it.
+ *
+ * Models are cached by ClassValue, so the model lives as long as its class
+ * and never pins classes of redeployed class loaders, although the model
+ * refers to the class and its fields.
+ *
+ * @author rspanov
+ */
+final class SettingsClassModel {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SettingsClassModel.class);
+
+    private static final ClassValue<SettingsClassModel> cache
+            = new ClassValue<SettingsClassModel>() {
+                @Override
+                protected SettingsClassModel computeValue(Class<?> type) {
+                    return new SettingsClassModel(type);
+                }
+            };
+
+    private final Class<?> type;
+    private final List<SettingField> staticFields;
+    private final List<SettingField> allFields;
+    private final List<Field> staticReflectFields;
+    private final List<Field> allReflectFields;
+    private final Map<String, SettingField> byName;
+    private final Map<String, SettingField> byKey;
+    private final String namespace;
+
+    private SettingsClassModel(Class<?> type) {
+        this.type = type;
+        List<SettingField> st = new ArrayList<SettingField>();
+        List<SettingField> all = new ArrayList<SettingField>();
+        List<Field> stRefl = new ArrayList<Field>();
+        List<Field> allRefl = new ArrayList<Field>();
+        Map<String, SettingField> names = new HashMap<String, SettingField>();
+        Map<String, SettingField> keys = new HashMap<String, SettingField>();
+        SettingsNamespace ns = type.getAnnotation(SettingsNamespace.class);
+        this.namespace = (ns != null) ? ns.value() : null;
+        SettingsBinder binder = loadBinder(type);
+        Map<String, Integer> bound = new HashMap<String, Integer>();
+        if (binder != null) {
+            String[] boundNames = binder.names();
+            for (int i = 0; i < boundNames.length; i++) {
+                bound.put(boundNames[i], i);
+            }
+        }
+        for (Field field : type.getDeclaredFields()) {
+            Setting ant = field.getAnnotation(Setting.class);
+            if (ant != null) {
+                field.setAccessible(true);
+                Integer ndx = bound.get(field.getName());
+                String key = (namespace != null)
+                        ? namespace + "." + field.getName() : field.getName();
+                SettingField sf = (ndx != null)
+                        ? new SettingField(field, ant, key, binder, ndx)
+                        : new SettingField(field, ant, key, null, -1);
+                if (sf.isStatic()) {
+                    st.add(sf);
+                    stRefl.add(field);
+                }
+                all.add(sf);
+                allRefl.add(field);
+                names.put(sf.getName(), sf);
+                keys.put(key, sf);
+            }
+        }
+        this.staticFields = Collections.unmodifiableList(st);
+        this.allFields = Collections.unmodifiableList(all);
+        this.staticReflectFields = Collections.unmodifiableList(stRefl);
+        this.allReflectFields = Collections.unmodifiableList(allRefl);
+        this.byName = Collections.unmodifiableMap(names);
+        this.byKey = Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Find binder generated for class
+     *
+     * @param type class contains fields annotated with @Setting
+     * @return binder or null if there is no one
+     */
+    static SettingsBinder loadBinder(Class<?> type) {
+        String name = type.getName().replace("$", "$$")
+                + SettingsBinder.SUFFIX;
+        try {
+            Class<?> cl = Class.forName(name, true, type.getClassLoader());
+            if (SettingsBinder.class.isAssignableFrom(cl)) {
+                return (SettingsBinder) cl.getDeclaredConstructor()
+                        .newInstance();
+            }
+            logger.warn("{} does not implement SettingsBinder", name);
+        } catch (ClassNotFoundException cnfe) {
+            // no binder, reflection is used
+        } catch (InvocationTargetException ite) {
+            logger.warn("binder " + name + " can't be created",
+                    ite.getCause());
+        } catch (Exception ex) {
+            logger.warn("binder " + name + " can't be created", ex);
+        } catch (LinkageError le) {
+            logger.warn("binder " + name + " can't be loaded", le);
+        }
+        return null;
+    }
+
+    /**
+     * Get cached model of class, build it on first use
+     *
+     * @param type class contains fields annotated with @Setting
+     * @return model of class
+     */
+    static SettingsClassModel of(Class<?> type) {
+        return cache.get(type);
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return namespace of class or null if it has no namespace
+     */
+    String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Get fields applicable for the target
+     *
+     * @param o instance of class, or null if only static fields used
+     * @return all fields for instance, static ones for null
+     */
+    List<SettingField> fields(Object o) {
+        return (o == null) ? staticFields : allFields;
+    }
+
+    /**
+     * Get reflective fields applicable for the target
+     *
+     * @param o instance of class, or null if only static fields used
+     * @return all fields for instance, static ones for null
+     */
+    List<Field> reflectFields(Object o) {
+        return (o == null) ? staticReflectFields : allReflectFields;
+    }
+
+    /**
+     * Find setting by field name
+     *
+     * @param name name of setting
+     * @return setting or null if class has no such setting
+     */
+    SettingField get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Find setting by key in data source
+     *
+     * @param key key of setting
+     * @return setting or null if class has no such setting
+     */
+    SettingField getByKey(String key) {
+        return byKey.get(key);
+    }
+
+    /**
+     * Find setting for reflective field
+     *
+     * @param field field of class
+     * @return setting, or null if field is not annotated with @Setting
+     */
+    static SettingField get(Field field) {
+        SettingField sf = of(field.getDeclaringClass()).get(field.getName());
+        return (sf != null && sf.getField().equals(field)) ? sf : null;
+    }
+}
@@ -0,0 +1,88 @@
+package org.rspanov.commons.settings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of classes with fields annotated with @Setting. It is written at
+ * compile time by the annotation processor of
+ * rsp-commons-settings-processor into META-INF of each jar, so the classes
+ * are found without scanning of classpath.
+ *
+ * Index file has binary name of class per line, lines starting with # are
+ * comments.
+ *
+ * @author rspanov
+ */
+public final class SettingsIndex {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SettingsIndex.class);
+
+    /**
+     * path of index file in classpath
+     */
+    public static final String RESOURCE
+            = "META-INF/rsp-commons-settings/settings.index";
+
+    private SettingsIndex() {
+    }
+
+    /**
+     * Read index files of all jars visible by class loader. Classes which
+     * can't be loaded are skipped with warning, the index may be written by
+     * older build.
+     *
+     * @param loader class loader of classes and index files
+     * @return indexed classes in order of index files
+     * @throws IOException if index file can't be read
+     */
+    public static List<Class<?>> classes(ClassLoader loader)
+            throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        Enumeration<URL> urls = loader.getResources(RESOURCE);
+        while (urls.hasMoreElements()) {
+            read(urls.nextElement(), names);
+        }
+        List<Class<?>> result = new ArrayList<Class<?>>(names.size());
+        for (String name : names) {
+            try {
+                result.add(Class.forName(name, false, loader));
+            } catch (ClassNotFoundException cnfe) {
+                logger.warn("indexed settings class {} is not found", name);
+            } catch (LinkageError le) {
+                logger.warn("indexed settings class " + name
+                        + " can't be loaded", le);
+            }
+        }
+        return result;
+    }
+
+    private static void read(URL url, Set<String> names) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
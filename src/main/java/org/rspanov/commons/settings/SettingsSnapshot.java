@@ -0,0 +1,88 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.InvocationTargetException;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Holder of consistent settings of class. On each load the storage creates
+ * a new instance of class, loads and validates all settings into it and
+ * then publishes it by one volatile write. So readers see either all old
+ * or all new settings, never a mix of them, and reading is lock-free.
+ *
+ * Load it by storage as any other instance:
+ * <pre>
+ * SettingsSnapshot&lt;DbSettings&gt; db = new SettingsSnapshot&lt;DbSettings&gt;(DbSettings.class);
+ * storage.register(db);
+ * ...
+ * DbSettings current = db.get();
+ * connect(current.getHost(), current.getPort());
+ * </pre>
+ * Read get() once per unit of work and use the returned object, fields of
+ * published instance must not be changed.
+ *
+ * @param <T> class with instance fields annotated with @Setting, it must
+ * have public constructor without arguments
+ * @author rspanov
+ */
+public final class SettingsSnapshot<T> {
+
+    private final Class<T> type;
+
+    private volatile T current;
+
+    private boolean loaded;
+
+    /**
+     * Create snapshot with default values of settings
+     *
+     * @param type class of settings
+     * @throws SettingsException if class can't be instantiated
+     */
+    public SettingsSnapshot(Class<T> type) throws SettingsException {
+        this.type = type;
+        this.current = newInstance();
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return current settings, never null
+     */
+    public T get() {
+        return current;
+    }
+
+    /**
+     * @return true if settings were loaded at least once
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    T newInstance() throws SettingsException {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException ite) {
+            throw new SettingsException(type.getName()
+                    + " can't be instantiated", ite.getCause());
+        } catch (Exception ex) {
+            throw new SettingsException(type.getName()
+                    + " can't be instantiated", ex);
+        }
+    }
+
+    /**
+     * Replace current settings
+     *
+     * @param settings loaded settings
+     * @return previous settings or null if it is first load
+     */
+    synchronized T publish(Object settings) {
+        T previous = loaded ? current : null;
+        current = type.cast(settings);
+        loaded = true;
+        return previous;
+    }
+}
@@ -1,22 +1,34 @@
 package org.rspanov.commons.settings;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import org.rspanov.commons.settings.ann.Setting;
 import org.rspanov.commons.settings.exceptions.SettingsException;
 import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+import org.rspanov.commons.settings.invalidation.InvalidationBus;
+import org.rspanov.commons.settings.invalidation.InvalidationListener;
+import org.rspanov.commons.settings.metrics.SettingsMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class implements basic operations for store/retrieve settings.
  * Concrete implementations of settings storages must extends this class.
- * @see PropertySettingsStorage, MySqlSettingsStorage
+ * @see PropertySettingsStorage, JdbcSettingsStorage
  *
  * @author rspanov
  */
@@ -25,6 +37,187 @@ public abstract class SettingsStorage {
     private static final Logger logger = LoggerFactory
             .getLogger(SettingsStorage.class);
 
+    /**
+     * classes and instances reloaded on change of settings
+     */
+    private final Set<Class<?>> registeredClasses
+            = new CopyOnWriteArraySet<Class<?>>();
+    private final Set<Object> registeredInstances = Collections
+            .synchronizedSet(Collections.newSetFromMap(
+                    new WeakHashMap<Object, Boolean>()));
+
+    /**
+     * raw values applied to fields or saved from them by the storage,
+     * per class (static fields) or instance
+     */
+    private final Map<Object, Map<String, String>> appliedValues = Collections
+            .synchronizedMap(new WeakHashMap<Object, Map<String, String>>());
+
+    private final List<SettingChangeListener> changeListeners
+            = new CopyOnWriteArrayList<SettingChangeListener>();
+
+    private final AsyncLoader asyncLoader = new AsyncLoader(this);
+
+    /**
+     * max number of classes and instances loaded at once by loadAsync and
+     * loadAll
+     */
+    private volatile int maxParallelLoads = 4;
+
+    public int getMaxParallelLoads() {
+        return maxParallelLoads;
+    }
+
+    public void setMaxParallelLoads(int maxParallelLoads) {
+        if (maxParallelLoads < 1) {
+            throw new IllegalArgumentException("maxParallelLoads must be "
+                    + "positive: " + maxParallelLoads);
+        }
+        this.maxParallelLoads = maxParallelLoads;
+    }
+
+    /**
+     * receiver of metrics, null if storage is not measured
+     */
+    private volatile SettingsMetrics metrics;
+
+    public SettingsMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set receiver of metrics of the storage
+     *
+     * @param metrics receiver of metrics, null to stop measuring
+     */
+    public void setMetrics(SettingsMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * bus to publish saved keys and receive keys changed by others,
+     * null if storage is not connected to other storages
+     */
+    private volatile InvalidationBus invalidationBus;
+
+    /**
+     * set while the thread publishes keys saved by this storage, so they are
+     * not reloaded when the bus delivers them back to the storage
+     */
+    private final ThreadLocal<Boolean> publishing = new ThreadLocal<Boolean>();
+
+    private final InvalidationListener invalidationListener
+            = new InvalidationListener() {
+                @Override
+                public void keysChanged(Collection<String> keys) {
+                    if (publishing.get() != null) {
+                        return;
+                    }
+                    try {
+                        reload(keys);
+                    } catch (SettingsException se) {
+                        logger.error("reload of changed settings failed", se);
+                    }
+                }
+            };
+
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    /**
+     * Connect storage to invalidation bus. Keys of settings saved by the
+     * storage are published to the bus, keys received from the bus are
+     * reloaded in registered classes and instances. Keys delivered back to
+     * the storage by the publishing thread are not reloaded.
+     *
+     * @param invalidationBus the bus, null to disconnect
+     * @see #register(java.lang.Class)
+     */
+    public synchronized void setInvalidationBus(
+            InvalidationBus invalidationBus) {
+        InvalidationBus old = this.invalidationBus;
+        if (old != null) {
+            old.unsubscribe(invalidationListener);
+        }
+        this.invalidationBus = invalidationBus;
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(invalidationListener);
+        }
+    }
+
+    /**
+     * Start measuring of operation
+     *
+     * @return start time to pass to stopTiming, 0 if metrics are disabled
+     */
+    protected final long startTiming() {
+        return (metrics != null) ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Report duration of operation started by startTiming
+     *
+     * @param operation measured operation
+     * @param start result of startTiming
+     * @param success false if operation is failed
+     */
+    protected final void stopTiming(SettingsMetrics.Operation operation,
+            long start, boolean success) {
+        SettingsMetrics m = metrics;
+        if (m != null && start != 0L) {
+            m.timing(operation, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Report statements executed by database
+     *
+     * @param count number of round trips
+     */
+    protected final void roundTrips(int count) {
+        SettingsMetrics m = metrics;
+        if (m != null) {
+            m.roundTrips(count);
+        }
+    }
+
+    /**
+     * Report lookups of settings in cache
+     *
+     * @param hits number of settings found in cache
+     * @param misses number of settings absent or expired in cache
+     */
+    protected final void cacheLookups(int hits, int misses) {
+        SettingsMetrics m = metrics;
+        if (m != null) {
+            m.cacheLookups(hits, misses);
+        }
+    }
+
+    /**
+     * Report number of settings waiting in write-behind queue
+     *
+     * @param depth number of keys waiting for flush
+     */
+    protected final void writeQueueDepth(int depth) {
+        SettingsMetrics m = metrics;
+        if (m != null) {
+            m.writeQueueDepth(depth);
+        }
+    }
+
+    /*
+     * report rejected value if load or save is failed because of it
+     */
+    private void validationFailure(SettingsException se) {
+        SettingsMetrics m = metrics;
+        if (m != null && se.getExceptionType() != null
+                && se.getExceptionType() != SettingsExceptionType.OTHERS) {
+            m.validationFailure(se.getFieldName(), se.getExceptionType());
+        }
+    }
+
     /**
      * Synchronize field of class with settings data source (DB, file, etc).
      * If setting record not presents in source the new record with default
@@ -51,6 +244,95 @@ public abstract class SettingsStorage {
     public abstract void saveValue(Field field, Object o)
             throws SettingsException;
 
+    /**
+     * Synchronize all annotated fields of class with settings data source.
+     * Default implementation calls syncField for each field, storages able
+     * to read many settings at once should override it to save round trips.
+     *
+     * @param fields synchronizing fields of class
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @throws SettingsException
+     */
+    protected void syncFields(List<Field> fields, Object o)
+            throws SettingsException {
+        for (Field field : fields) {
+            long start = startTiming();
+            boolean success = false;
+            try {
+                syncField(field, o);
+                success = true;
+            } finally {
+                stopTiming(SettingsMetrics.Operation.SYNC_FIELD, start,
+                        success);
+            }
+        }
+    }
+
+    /**
+     * Save all annotated fields of class to settings data source.
+     * Default implementation calls saveValue for each field, storages able
+     * to write many settings at once should override it.
+     *
+     * @param fields saving fields of class
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @throws SettingsException
+     */
+    protected void saveValues(List<Field> fields, Object o)
+            throws SettingsException {
+        for (Field field : fields) {
+            long start = startTiming();
+            boolean success = false;
+            try {
+                saveValue(field, o);
+                success = true;
+            } finally {
+                stopTiming(SettingsMetrics.Operation.SAVE_VALUE, start,
+                        success);
+            }
+        }
+    }
+
+    /**
+     * Key of setting in data source: name of field, prefixed with namespace
+     * of class if the class is annotated with @SettingsNamespace
+     *
+     * @param field the field of class
+     * @return key of setting
+     */
+    protected static String settingKey(Field field) {
+        SettingField sf = SettingsClassModel.get(field);
+        return (sf != null) ? sf.getKey() : field.getName();
+    }
+
+    /**
+     * Namespace of settings of class
+     *
+     * @param clazz class contains fields annotated with @Setting
+     * @return namespace or null if class has no namespace
+     */
+    protected static String settingsNamespace(Class<?> clazz) {
+        return SettingsClassModel.of(clazz).getNamespace();
+    }
+
+    /**
+     * Read values of settings from data source as they are stored,
+     * without touching any fields. Storages able to do it should override
+     * this method, default implementation does not support raw reading.
+     *
+     * @param names keys of settings
+     * @return map of setting key to value in String representation,
+     * keys absent in data source are not included
+     * @throws SettingsException
+     */
+    public Map<String, String> readValues(Collection<String> names)
+            throws SettingsException {
+        throw new SettingsException(getClass().getName()
+                + " does not support reading of raw values",
+                SettingsExceptionType.OTHERS);
+    }
+
     /**
      * Check for setting value is valid
      *
@@ -60,8 +342,22 @@ public abstract class SettingsStorage {
      */
     protected static void checkValue(Field field, String value)
             throws SettingsException {
+        SettingField sf = SettingsClassModel.get(field);
+        if (sf != null) {
+            checkValue(sf, value);
+            return;
+        }
         Setting ann = field.getAnnotation(Setting.class);
-        boolean nullable = (ann != null && ann.nullable());
+        checkValue(field, ann != null && ann.nullable(), value);
+    }
+
+    static void checkValue(SettingField sf, String value)
+            throws SettingsException {
+        checkValue(sf.getField(), sf.isNullable(), value);
+    }
+
+    private static void checkValue(Field field, boolean nullable, String value)
+            throws SettingsException {
         boolean nullValue = (value == null || (field.getType().equals(
                 String.class) && value.isEmpty()));
         if (!nullable && nullValue) {
@@ -84,67 +380,14 @@ public abstract class SettingsStorage {
      */
     protected static void setField(Field field, String value, Object o)
             throws SettingsException {
+        SettingField sf = SettingsClassModel.get(field);
+        if (sf != null) {
+            setField(sf, value, o);
+            return;
+        }
         try {
             checkValue(field, value);
-            Class<?> ft = field.getType();
-            if (ft == AtomicBoolean.class) {
-                if (value == null) {
-                    field.set(o, null);
-                } else {
-                    if (field.get(o) == null) {
-                        field.set(o,
-                                new AtomicBoolean(Boolean.parseBoolean(value)));
-                    } else {
-                        ((AtomicBoolean) (field.get(o))).set(Boolean
-                                .parseBoolean(value));
-                    }
-                }
-            } else if (ft == AtomicLong.class) {
-                if (value == null) {
-                    field.set(o, null);
-                } else {
-                    if (field.get(o) == null) {
-                        field.set(o, new AtomicLong(Long.parseLong(value)));
-                    } else {
-                        ((AtomicLong) (field.get(o)))
-                                .set(Long.parseLong(value));
-                    }
-                }
-            } else if (ft == AtomicInteger.class) {
-                if (value == null) {
-                    field.set(o, null);
-                } else {
-                    if (field.get(o) == null) {
-                        field.set(o, new AtomicInteger(Integer.parseInt(value)));
-                    } else {
-                        ((AtomicInteger) (field.get(o))).set(Integer
-                                .parseInt(value));
-                    }
-                }
-            } else if (ft == String.class) {
-                field.set(o, value);
-            } else if (ft == Integer.TYPE) {
-                field.set(o, Integer.parseInt(value));
-            } else if (ft == Long.TYPE) {
-                field.set(o, Long.parseLong(value));
-            } else if (ft == Double.TYPE) {
-                field.set(o, Double.parseDouble(value));
-            } else if (ft == Boolean.TYPE) {
-                field.set(o, Boolean.parseBoolean(value));
-            } else if (ft.isEnum()) {
-                try {
-                    field.set(o, Enum.valueOf(ft.asSubclass(Enum.class), value));
-                } catch (IllegalArgumentException iae) {
-                    throw new SettingsException(iae.getMessage(),
-                            SettingsExceptionType.INVALID_VALUE_EXCEPTION,
-                            field.getName(), value);
-                }
-            } else {
-                throw new SettingsException("field " + field.getName()
-                        + " has unsupported type",
-                        SettingsExceptionType.INVALID_TYPE_EXCEPTION,
-                        field.getName(), null);
-            }
+            SettingType.of(field.getType()).apply(field, value, o);
         } catch (NumberFormatException nfe) {
             throw new SettingsException(nfe.getMessage(),
                     SettingsExceptionType.INVALID_VALUE_EXCEPTION,
@@ -156,6 +399,179 @@ public abstract class SettingsStorage {
         }
     }
 
+    static void setField(SettingField sf, String value, Object o)
+            throws SettingsException {
+        try {
+            checkValue(sf, value);
+            sf.set(value, o);
+        } catch (IllegalArgumentException iae) {
+            // bad number or enum constant
+            throw new SettingsException(iae.getMessage(),
+                    SettingsExceptionType.INVALID_VALUE_EXCEPTION,
+                    sf.getName(), value);
+        } catch (SettingsException se) {
+            throw se;
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Put value from data source into the field, if it differs from the
+     * value applied to the field before. Unchanged values are not parsed
+     * and not written, for changed ones listeners are notified.
+     *
+     * Storages should use it instead of setField, so changes are tracked.
+     * Note that a field changed by application since last load is not
+     * restored by load if value in data source is the same.
+     *
+     * @param field the field of class
+     * @param value the field value in String representation.
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     * @throws SettingsException
+     */
+    protected void applyValue(Field field, String value, Object o)
+            throws SettingsException {
+        Map<String, String> applied = appliedValues(field, o);
+        String name = field.getName();
+        String old;
+        boolean known;
+        synchronized (applied) {
+            known = applied.containsKey(name);
+            old = applied.get(name);
+        }
+        if (known && equal(old, value)) {
+            return;
+        }
+        setField(field, value, o);
+        synchronized (applied) {
+            applied.put(name, value);
+        }
+        if (known) {
+            fireChanged(field, old, value, o);
+        }
+    }
+
+    /**
+     * Remember value put into the field by other means than applyValue,
+     * listeners are notified if it differs from the value applied before
+     *
+     * @param field the field of class
+     * @param value the field value in String representation.
+     * @param o instance of class contains settings,
+     * or null if static fields used
+     */
+    protected void valueApplied(Field field, String value, Object o) {
+        Map<String, String> applied = appliedValues(field, o);
+        String old;
+        boolean known;
+        synchronized (applied) {
+            known = applied.containsKey(field.getName());
+            old = applied.put(field.getName(), value);
+        }
+        if (known && !equal(old, value)) {
+            fireChanged(field, old, value, o);
+        }
+    }
+
+    /**
+     * Add listener of changed settings
+     *
+     * @param listener listener called on change of any setting loaded by
+     * the storage
+     */
+    public void addChangeListener(SettingChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(SettingChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /*
+     * values applied to static fields of class or to fields of instance
+     */
+    private Map<String, String> appliedValues(Field field, Object o) {
+        Object target = (o == null) ? field.getDeclaringClass() : o;
+        synchronized (appliedValues) {
+            Map<String, String> applied = appliedValues.get(target);
+            if (applied == null) {
+                applied = new HashMap<String, String>();
+                appliedValues.put(target, applied);
+            }
+            return applied;
+        }
+    }
+
+    /*
+     * fields which values differ from the ones applied or saved before
+     */
+    private List<Field> changedFields(List<Field> fields, Object o)
+            throws Exception {
+        if (fields.isEmpty()) {
+            return fields;
+        }
+        Map<String, String> applied = appliedValues(fields.get(0), o);
+        SettingsClassModel model = SettingsClassModel.of(
+                fields.get(0).getDeclaringClass());
+        List<Field> changed = new ArrayList<Field>();
+        synchronized (applied) {
+            for (Field field : fields) {
+                SettingField sf = model.get(field.getName());
+                Object value = (sf != null) ? sf.get(o) : field.get(o);
+                String raw = (value != null) ? String.valueOf(value) : null;
+                if (!applied.containsKey(field.getName())
+                        || !equal(applied.get(field.getName()), raw)) {
+                    changed.add(field);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * remember values of fields as they are in data source, after load
+     * only fields not applied before are remembered: they were added to
+     * data source with their current values
+     */
+    private void rememberStored(List<Field> fields, Object o, boolean loaded)
+            throws Exception {
+        if (fields.isEmpty()) {
+            return;
+        }
+        Map<String, String> applied = appliedValues(fields.get(0), o);
+        SettingsClassModel model = SettingsClassModel.of(
+                fields.get(0).getDeclaringClass());
+        synchronized (applied) {
+            for (Field field : fields) {
+                if (loaded && applied.containsKey(field.getName())) {
+                    continue;
+                }
+                SettingField sf = model.get(field.getName());
+                Object value = (sf != null) ? sf.get(o) : field.get(o);
+                applied.put(field.getName(),
+                        (value != null) ? String.valueOf(value) : null);
+            }
+        }
+    }
+
+    private void fireChanged(Field field, String oldValue, String newValue,
+            Object o) {
+        for (SettingChangeListener listener : changeListeners) {
+            try {
+                listener.settingChanged(field, oldValue, newValue, o);
+            } catch (RuntimeException re) {
+                logger.error("listener of setting " + field.getName()
+                        + " failed", re);
+            }
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
     /**
      * check for value of filed is valid.
      *
@@ -171,7 +587,7 @@ public abstract class SettingsStorage {
             if (value == null) {
                 checkValue(field, null);
             } else {
-                checkValue(field, String.valueOf(o));
+                checkValue(field, String.valueOf(value));
             }
         } catch (SettingsException se) {
             throw se;
@@ -201,6 +617,10 @@ public abstract class SettingsStorage {
      * @throws SettingsException
      */
     public void load(Object o) throws SettingsException {
+        if (o instanceof SettingsSnapshot) {
+            loadSnapshot((SettingsSnapshot<?>) o);
+            return;
+        }
         load(o.getClass(), o);
     }
 
@@ -211,7 +631,7 @@ public abstract class SettingsStorage {
      * @throws SettingsException
      */
     public void save(Class<?> clazz) throws SettingsException {
-        save(clazz, null);
+        save(clazz, null, false);
     }
 
     /**
@@ -221,32 +641,402 @@ public abstract class SettingsStorage {
      * @throws SettingsException
      */
     public void save(Object o) throws SettingsException {
-        save(o.getClass(), o);
+        if (o instanceof SettingsSnapshot) {
+            o = ((SettingsSnapshot<?>) o).get();
+        }
+        save(o.getClass(), o, false);
     }
 
-    /*
-     * common saving implementation
+    /**
+     * Save only static fields of class which were changed since they were
+     * loaded or saved by this storage. Fields never loaded or saved by this
+     * storage are saved too.
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void saveChanged(Class<?> clazz) throws SettingsException {
+        save(clazz, null, true);
+    }
+
+    /**
+     * Save only fields of instance which were changed since they were
+     * loaded or saved by this storage. Fields never loaded or saved by this
+     * storage are saved too.
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void saveChanged(Object o) throws SettingsException {
+        if (o instanceof SettingsSnapshot) {
+            o = ((SettingsSnapshot<?>) o).get();
+        }
+        save(o.getClass(), o, true);
+    }
+
+    /**
+     * Start loading of static fields of class by executor
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @param executor executor to run load
+     * @return future of load, its get throws ExecutionException with
+     * SettingsException cause if load is failed
+     */
+    public Future<Void> loadAsync(Class<?> clazz, Executor executor) {
+        return asyncLoader.load(Collections.singletonList(clazz), executor);
+    }
+
+    /**
+     * Start loading of fields of instance by executor
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @param executor executor to run load
+     * @return future of load, its get throws ExecutionException with
+     * SettingsException cause if load is failed
      */
-    private void save(Class<?> cl, Object o) throws SettingsException {
+    public Future<Void> loadAsync(Object o, Executor executor) {
+        return asyncLoader.load(Collections.singletonList(o), executor);
+    }
+
+    /**
+     * Load static fields of classes in parallel. At most maxParallelLoads
+     * classes are loaded at once, so data source is not flooded, the rest
+     * wait in queue of storage. Failure of one class does not stop loading
+     * of others.
+     *
+     * @param executor executor to run loads
+     * @param classes classes contain static fields annotated with @Setting
+     * @return future done when all classes are loaded or failed, its get
+     * throws ExecutionException with SettingsException cause if any class is
+     * failed, failures of other classes are suppressed by it
+     */
+    public Future<Void> loadAll(Executor executor, Class<?>... classes) {
+        return asyncLoader.load(Arrays.asList(classes), executor);
+    }
+
+    /**
+     * Load static fields of all classes listed in settings index, so no
+     * class is forgotten. Settings of all classes are prefetched at once by
+     * storages which can do it, then classes are loaded one by one.
+     *
+     * @return loaded classes, classes with instance fields only are skipped
+     * @throws SettingsException
+     * @see SettingsIndex
+     */
+    public List<Class<?>> loadAll() throws SettingsException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loadAll((loader != null) ? loader
+                : SettingsStorage.class.getClassLoader());
+    }
+
+    /**
+     * Load static fields of all classes listed in settings index
+     *
+     * @param loader class loader of classes and index files
+     * @return loaded classes, classes with instance fields only are skipped
+     * @throws SettingsException
+     * @see SettingsIndex
+     */
+    public List<Class<?>> loadAll(ClassLoader loader)
+            throws SettingsException {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        List<String> keys = new ArrayList<String>();
         try {
-            Field[] fields = cl.getDeclaredFields();
-            for (Field field : fields) {
-                Setting ant = field.getAnnotation(Setting.class);
-                if (ant != null) {
-                    // skip non-static fields if instance is null
-                    if (!Modifier.isStatic(field.getModifiers()) && (o == null)) {
+            for (Class<?> cl : SettingsIndex.classes(loader)) {
+                List<Field> fields = SettingsClassModel.of(cl)
+                        .reflectFields(null);
+                if (fields.isEmpty()) {
+                    continue;
+                }
+                classes.add(cl);
+                for (Field field : fields) {
+                    keys.add(settingKey(field));
+                }
+            }
+        } catch (IOException ioe) {
+            throw new SettingsException("settings index can't be read", ioe);
+        }
+        prefetch(keys);
+        try {
+            for (Class<?> cl : classes) {
+                load(cl);
+            }
+        } finally {
+            prefetchDone();
+        }
+        return classes;
+    }
+
+    /**
+     * Read values of settings before they are loaded by loadAll, so loads
+     * of classes don't go to data source each. Prefetched values are used
+     * by the loading thread only. Default implementation does nothing.
+     *
+     * @param keys keys of all settings to be loaded
+     * @throws SettingsException
+     */
+    protected void prefetch(Collection<String> keys) throws SettingsException {
+    }
+
+    /**
+     * Release values read by prefetch, loadAll is finished
+     */
+    protected void prefetchDone() {
+    }
+
+    /**
+     * Load settings into static fields of class and register the class,
+     * so its fields are reloaded when the storage detects a change
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void register(Class<?> clazz) throws SettingsException {
+        load(clazz);
+        registeredClasses.add(clazz);
+    }
+
+    /**
+     * Load settings into fields of instance and register the instance,
+     * so its fields are reloaded when the storage detects a change.
+     * Instance is held weakly and is forgotten when it is garbage collected
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @throws SettingsException
+     */
+    public void register(Object o) throws SettingsException {
+        load(o);
+        registeredInstances.add(o);
+    }
+
+    /**
+     * Stop reloading of class
+     *
+     * @param clazz registered class
+     */
+    public void unregister(Class<?> clazz) {
+        registeredClasses.remove(clazz);
+    }
+
+    /**
+     * Stop reloading of instance
+     *
+     * @param o registered instance
+     */
+    public void unregister(Object o) {
+        registeredInstances.remove(o);
+    }
+
+    /**
+     * Reload all registered classes and instances. Failure of one target
+     * is logged and does not stop reloading of others.
+     */
+    protected void reloadRegistered() {
+        for (Class<?> clazz : registeredClasses) {
+            try {
+                load(clazz);
+            } catch (SettingsException se) {
+                logger.error("reload of " + clazz.getName() + " failed", se);
+            }
+        }
+        List<Object> instances;
+        synchronized (registeredInstances) {
+            instances = new ArrayList<Object>(registeredInstances);
+        }
+        for (Object o : instances) {
+            try {
+                load(o);
+            } catch (SettingsException se) {
+                logger.error("reload of " + o.getClass().getName()
+                        + " instance failed", se);
+            }
+        }
+    }
+
+    /**
+     * Reload settings with given keys in registered classes and instances,
+     * other settings are not touched. Values of all keys are read by one
+     * readValues call, nothing is read if no registered class or instance
+     * has these keys. Registered snapshots having any of keys are fully
+     * reloaded. Failure of one setting is logged and does not stop
+     * reloading of others.
+     *
+     * @param keys keys of settings
+     * @throws SettingsException if values can't be read
+     */
+    public void reload(Collection<String> keys) throws SettingsException {
+        List<SettingField> fields = new ArrayList<SettingField>();
+        List<Object> targets = new ArrayList<Object>();
+        List<SettingsSnapshot<?>> snapshots
+                = new ArrayList<SettingsSnapshot<?>>();
+        for (Class<?> clazz : registeredClasses) {
+            SettingsClassModel model = SettingsClassModel.of(clazz);
+            for (String key : keys) {
+                SettingField sf = model.getByKey(key);
+                if (sf != null && sf.isStatic()) {
+                    fields.add(sf);
+                    targets.add(null);
+                }
+            }
+        }
+        List<Object> instances;
+        synchronized (registeredInstances) {
+            instances = new ArrayList<Object>(registeredInstances);
+        }
+        for (Object o : instances) {
+            if (o instanceof SettingsSnapshot) {
+                SettingsSnapshot<?> snapshot = (SettingsSnapshot<?>) o;
+                SettingsClassModel model = SettingsClassModel.of(
+                        snapshot.getType());
+                for (String key : keys) {
+                    if (model.getByKey(key) != null) {
+                        snapshots.add(snapshot);
+                        break;
+                    }
+                }
+                continue;
+            }
+            SettingsClassModel model = SettingsClassModel.of(o.getClass());
+            for (String key : keys) {
+                SettingField sf = model.getByKey(key);
+                if (sf != null) {
+                    fields.add(sf);
+                    targets.add(o);
+                }
+            }
+        }
+        if (!fields.isEmpty()) {
+            Set<String> wanted = new HashSet<String>();
+            for (SettingField sf : fields) {
+                wanted.add(sf.getKey());
+            }
+            Map<String, String> values = readValues(wanted);
+            for (int i = 0; i < fields.size(); i++) {
+                SettingField sf = fields.get(i);
+                if (!values.containsKey(sf.getKey())) {
+                    // record is removed, next load will restore it
+                    continue;
+                }
+                try {
+                    applyValue(sf.getField(), values.get(sf.getKey()),
+                            targets.get(i));
+                } catch (SettingsException se) {
+                    logger.error("reload of " + sf.getKey() + " failed", se);
+                }
+            }
+        }
+        for (SettingsSnapshot<?> snapshot : snapshots) {
+            try {
+                load(snapshot);
+            } catch (SettingsException se) {
+                logger.error("reload of " + snapshot.getType().getName()
+                        + " snapshot failed", se);
+            }
+        }
+    }
+
+    /**
+     * Publish keys of saved fields to invalidation bus. Failure is logged,
+     * the settings are saved already and other storages see them at their
+     * next load.
+     *
+     * @param fields saved fields
+     */
+    protected void publishSaved(List<Field> fields) {
+        if (invalidationBus == null || fields.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>(fields.size());
+        for (Field field : fields) {
+            keys.add(settingKey(field));
+        }
+        publishKeys(keys);
+    }
+
+    /**
+     * Publish keys of saved settings to invalidation bus, failure is logged
+     *
+     * @param keys keys of saved settings
+     */
+    protected void publishKeys(Collection<String> keys) {
+        InvalidationBus bus = invalidationBus;
+        if (bus == null || keys.isEmpty()) {
+            return;
+        }
+        publishing.set(Boolean.TRUE);
+        try {
+            bus.publish(keys);
+        } catch (SettingsException se) {
+            logger.error("saved settings are not published", se);
+        } catch (RuntimeException re) {
+            logger.error("saved settings are not published", re);
+        } finally {
+            publishing.remove();
+        }
+    }
+
+    /*
+     * load settings into new instance and publish it, if load is failed
+     * the snapshot is not changed
+     */
+    private void loadSnapshot(SettingsSnapshot<?> snapshot)
+            throws SettingsException {
+        synchronized (snapshot) {
+            Object fresh = snapshot.newInstance();
+            load(fresh);
+            Object previous = snapshot.publish(fresh);
+            if (previous == null || changeListeners.isEmpty()) {
+                return;
+            }
+            try {
+                for (SettingField sf : SettingsClassModel.of(
+                        snapshot.getType()).fields(fresh)) {
+                    if (sf.isStatic()) {
                         continue;
                     }
-                    field.setAccessible(true);
-                    saveValue(field, o);
+                    Object oldValue = sf.get(previous);
+                    Object newValue = sf.get(fresh);
+                    String oldRaw = (oldValue != null)
+                            ? String.valueOf(oldValue) : null;
+                    String newRaw = (newValue != null)
+                            ? String.valueOf(newValue) : null;
+                    if (!equal(oldRaw, newRaw)) {
+                        fireChanged(sf.getField(), oldRaw, newRaw, fresh);
+                    }
                 }
+            } catch (IllegalAccessException iae) {
+                throw new SettingsException(iae);
+            }
+        }
+    }
+
+    /*
+     * common saving implementation
+     */
+    private void save(Class<?> cl, Object o, boolean changedOnly)
+            throws SettingsException {
+        long start = startTiming();
+        boolean success = false;
+        try {
+            List<Field> fields = SettingsClassModel.of(cl).reflectFields(o);
+            if (changedOnly) {
+                fields = changedFields(fields, o);
             }
+            if (!fields.isEmpty()) {
+                saveValues(fields, o);
+                rememberStored(fields, o, false);
+                publishSaved(fields);
+            }
+            success = true;
         } catch (SettingsException se) {
             logger.error(se.getMessage(), se);
+            validationFailure(se);
             throw se;
         } catch (Exception ex) {
             logger.error(ex.getMessage(), ex);
             throw new SettingsException(ex);
+        } finally {
+            stopTiming(SettingsMetrics.Operation.SAVE, start, success);
         }
     }
 
@@ -254,25 +1044,22 @@ public abstract class SettingsStorage {
      * common loading implementation
      */
     private void load(Class<?> cl, Object o) throws SettingsException {
+        long start = startTiming();
+        boolean success = false;
         try {
-            Field[] fields = cl.getDeclaredFields();
-            for (Field field : fields) {
-                Setting ant = field.getAnnotation(Setting.class);
-                if (ant != null) {
-                    // skip non-static fields if instance is null
-                    if (!Modifier.isStatic(field.getModifiers()) && (o == null)) {
-                        continue;
-                    }
-                    field.setAccessible(true);
-                    syncField(field, o);
-                }
-            }
+            List<Field> fields = SettingsClassModel.of(cl).reflectFields(o);
+            syncFields(fields, o);
+            rememberStored(fields, o, true);
+            success = true;
         } catch (SettingsException se) {
             logger.error(se.getMessage(), se);
+            validationFailure(se);
             throw se;
         } catch (Exception ex) {
             logger.error(ex.getMessage(), ex);
             throw new SettingsException(ex);
+        } finally {
+            stopTiming(SettingsMetrics.Operation.LOAD, start, success);
         }
     }
 
@@ -280,19 +1067,11 @@ public abstract class SettingsStorage {
             Object o) throws SettingsException {
         try {
             List<SettingListElement> result = new ArrayList<SettingListElement>();
-            Field[] fields = cl.getDeclaredFields();
-            for (Field field : fields) {
-                Setting ant = field.getAnnotation(Setting.class);
-                if (ant != null) {
-                    if (!Modifier.isStatic(field.getModifiers()) && (o == null)) {
-                        continue;
-                    }
-                    field.setAccessible(true);
-                    Object value = field.get(o);
-                    result.add(new SettingListElement(field.getName(),
-                            (value != null) ? String.valueOf(value) : "", ant
-                            .description()));
-                }
+            for (SettingField sf : SettingsClassModel.of(cl).fields(o)) {
+                Object value = sf.get(o);
+                result.add(new SettingListElement(sf.getName(),
+                        (value != null) ? String.valueOf(value) : "",
+                        sf.getDescription()));
             }
             return result;
         } catch (Exception ex) {
@@ -330,32 +1109,25 @@ public abstract class SettingsStorage {
     private static void setSettingsList(Class<?> cl, Object o,
             List<SettingListElement> settings) throws SettingsException {
         try {
-            Field[] fields = cl.getDeclaredFields();
-            for (Field field : fields) {
-                Setting ant = field.getAnnotation(Setting.class);
-                if (ant != null) {
-                    if (!Modifier.isStatic(field.getModifiers()) && (o == null)) {
-                        continue;
-                    }
-                    field.setAccessible(true);
-                    int ndx = -1;
-                    for (int i = 0; i < settings.size(); i++) {
-                        if (field.getName().equals(
-                                settings.get(i).getSettingName())) {
-                            ndx = i;
-                            break;
-                        }
-                    }
-                    if (ndx < 0) {
-                        throw new SettingsException(
-                                "settings list does not contains field"
-                                + field.getName(),
-                                SettingsExceptionType.OTHERS, field.getName(),
-                                null);
-                    }
-                    String value = settings.get(ndx).getSettingValue();
-                    setField(field, value, o);
+            // index list by name, the first element wins for duplicates
+            Map<String, SettingListElement> index
+                    = new HashMap<String, SettingListElement>(
+                            settings.size() * 2);
+            for (SettingListElement element : settings) {
+                if (!index.containsKey(element.getSettingName())) {
+                    index.put(element.getSettingName(), element);
+                }
+            }
+            for (SettingField sf : SettingsClassModel.of(cl).fields(o)) {
+                SettingListElement element = index.get(sf.getName());
+                if (element == null) {
+                    throw new SettingsException(
+                            "settings list does not contains field"
+                            + sf.getName(),
+                            SettingsExceptionType.OTHERS, sf.getName(),
+                            null);
                 }
+                setField(sf, element.getSettingValue(), o);
             }
         } catch (SettingsException se) {
             logger.error(se.getMessage(), se);
@@ -391,4 +1163,78 @@ public abstract class SettingsStorage {
             List<SettingListElement> settings) throws SettingsException {
         setSettingsList(o.getClass(), o, settings);
     }
+
+    private static SettingField findSetting(Class<?> cl, Object o, String name)
+            throws SettingsException {
+        SettingField sf = SettingsClassModel.of(cl).get(name);
+        if (sf == null || (o == null && !sf.isStatic())) {
+            throw new SettingsException(cl.getName()
+                    + " does not contains setting " + name,
+                    SettingsExceptionType.OTHERS, name, null);
+        }
+        return sf;
+    }
+
+    private static String getSetting(Class<?> cl, Object o, String name)
+            throws SettingsException {
+        SettingField sf = findSetting(cl, o, name);
+        try {
+            Object value = sf.get(o);
+            return (value != null) ? String.valueOf(value) : null;
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Get value of one static setting of class
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @param name name of setting
+     * @return value of setting in String representation, or null
+     * @throws SettingsException if class has no such setting
+     */
+    public static String getSetting(Class<?> clazz, String name)
+            throws SettingsException {
+        return getSetting(clazz, null, name);
+    }
+
+    /**
+     * Get value of one setting of class instance
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @param name name of setting
+     * @return value of setting in String representation, or null
+     * @throws SettingsException if class has no such setting
+     */
+    public static String getSetting(Object o, String name)
+            throws SettingsException {
+        return getSetting(o.getClass(), o, name);
+    }
+
+    /**
+     * Set one static setting of class without touching other ones
+     *
+     * @param clazz class contains static fields annotated with @Setting
+     * @param name name of setting
+     * @param value value of setting in String representation
+     * @throws SettingsException
+     */
+    public static void setSetting(Class<?> clazz, String name, String value)
+            throws SettingsException {
+        setField(findSetting(clazz, null, name), value, null);
+    }
+
+    /**
+     * Set one setting of class instance without touching other ones
+     *
+     * @param o instance of class contains fields annotated with @Setting
+     * @param name name of setting
+     * @param value value of setting in String representation
+     * @throws SettingsException
+     */
+    public static void setSetting(Object o, String name, String value)
+            throws SettingsException {
+        setField(findSetting(o.getClass(), o, name), value, o);
+    }
 }
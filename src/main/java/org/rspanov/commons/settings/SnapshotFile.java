@@ -0,0 +1,235 @@
+package org.rspanov.commons.settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of setting values. The file is memory-mapped and values
+ * are found by binary search over sorted keys, so nothing is parsed except
+ * the values which are read.
+ *
+ * Format: magic, version, number of entries, CRC32 of the rest of file,
+ * offsets of entries sorted by key, entries (length and UTF-8 bytes of key,
+ * length and UTF-8 bytes of value, -1 length for null value).
+ *
+ * @author rspanov
+ */
+final class SnapshotFile {
+
+    /**
+     * "RSSN"
+     */
+    private static final int MAGIC = 0x5253534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buf;
+    private final int count;
+
+    private SnapshotFile(ByteBuffer buf, int count) {
+        this.buf = buf;
+        this.count = count;
+    }
+
+    /**
+     * Map snapshot file
+     *
+     * @param file snapshot file
+     * @return snapshot or null if file does not exist
+     * @throws IOException if file can't be read or it is damaged
+     */
+    static SnapshotFile open(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        MappedByteBuffer buf;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a settings snapshot");
+            }
+            // mapping stays valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a settings snapshot");
+        }
+        int count = buf.getInt(8);
+        if (count < 0 || HEADER_SIZE + 4L * count > buf.limit()
+                || checksum(buf) != buf.getInt(12)) {
+            throw new IOException("settings snapshot " + file
+                    + " is damaged");
+        }
+        return new SnapshotFile(buf, count);
+    }
+
+    private static int checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer b = buf.duplicate();
+        b.position(HEADER_SIZE);
+        while (b.hasRemaining()) {
+            int n = Math.min(chunk.length, b.remaining());
+            b.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param key key of setting
+     * @return true if snapshot has value of setting, it may be null
+     */
+    boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @param key key of setting
+     * @return value of setting, null if value is null or it is absent
+     */
+    String get(String key) {
+        int entry = find(key);
+        return (entry >= 0) ? value(entry) : null;
+    }
+
+    /**
+     * @return all values of snapshot
+     */
+    Map<String, String> toMap() {
+        Map<String, String> result = new HashMap<String, String>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int entry = buf.getInt(HEADER_SIZE + 4 * i);
+            result.put(key(entry), value(entry));
+        }
+        return result;
+    }
+
+    /*
+     * offset of entry with key, -1 if absent
+     */
+    private int find(String key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = buf.getInt(HEADER_SIZE + 4 * mid);
+            int cmp = key(entry).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private String key(int entry) {
+        return string(entry + 4, buf.getInt(entry));
+    }
+
+    private String value(int entry) {
+        int p = entry + 4 + buf.getInt(entry);
+        int length = buf.getInt(p);
+        return (length < 0) ? null : string(p + 4, length);
+    }
+
+    private String string(int from, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buf.duplicate();
+        b.position(from);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write snapshot into temporary file and move it over the snapshot
+     * file, so the file is never seen half written
+     *
+     * @param file snapshot file
+     * @param values values of settings
+     * @throws IOException
+     */
+    static void write(File file, Map<String, String> values)
+            throws IOException {
+        TreeMap<String, String> sorted = new TreeMap<String, String>(values);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        int[] offsets = new int[sorted.size()];
+        int base = HEADER_SIZE + 4 * offsets.length;
+        int i = 0;
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            offsets[i++] = base + out.size();
+            byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            if (e.getValue() == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] value = e.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+        out.flush();
+        ByteBuffer bytes = ByteBuffer.allocate(base + entries.size());
+        bytes.putInt(MAGIC).putInt(VERSION).putInt(offsets.length).putInt(0);
+        for (int offset : offsets) {
+            bytes.putInt(offset);
+        }
+        bytes.put(entries.toByteArray());
+        bytes.putInt(12, checksum(bytes));
+
+        File target = file.getAbsoluteFile();
+        File tmp = File.createTempFile(target.getName(), ".tmp",
+                target.getParentFile());
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(bytes.array());
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            try {
+                Files.move(tmp.toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmp.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            FileUtils.syncDirectory(target.getParentFile());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+}
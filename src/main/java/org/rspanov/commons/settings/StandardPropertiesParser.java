@@ -0,0 +1,35 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Parser based on java.util.Properties
+ *
+ * @author rspanov
+ */
+public class StandardPropertiesParser implements PropertiesParser {
+
+    @Override
+    public void parse(File file, Charset charset, Map<String, String> target)
+            throws IOException {
+        Properties props = new Properties();
+        Reader reader = new InputStreamReader(new FileInputStream(file),
+                charset);
+        try {
+            props.load(reader);
+        } finally {
+            reader.close();
+        }
+        for (String name : props.stringPropertyNames()) {
+            target.put(name, props.getProperty(name));
+        }
+    }
+
+}
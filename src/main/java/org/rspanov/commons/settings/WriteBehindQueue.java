@@ -0,0 +1,342 @@
+package org.rspanov.commons.settings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of saved setting values written to data source by
+ * background flusher. Values are coalesced by key, so only the last value
+ * of setting saved during flush interval is written. Saves are blocked
+ * while the queue is full.
+ *
+ * @author rspanov
+ */
+final class WriteBehindQueue {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(WriteBehindQueue.class);
+
+    /**
+     * value of setting to write
+     */
+    static final class Entry {
+
+        final String name;
+        final String value;
+        final String description;
+
+        /**
+         * failed writes while other values were written, guarded by
+         * flushLock
+         */
+        int attempts;
+
+        Entry(String name, String value, String description) {
+            this.name = name;
+            this.value = value;
+            this.description = description;
+        }
+    }
+
+    /**
+     * writes batch of values into data source
+     */
+    interface Writer {
+
+        /**
+         * @param entries values to write, one per key
+         * @throws Exception if nothing is written
+         */
+        void write(Collection<Entry> entries) throws Exception;
+
+        /**
+         * @param ex thrown by write of one value
+         * @return true if the value can never be written, like too long one
+         */
+        boolean isPermanent(Exception ex);
+    }
+
+    /**
+     * failed writes of a value while other values are written before it is
+     * dropped
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * max multiplier of flush interval to wait after failed flushes
+     */
+    private static final int MAX_BACKOFF = 64;
+
+    private final Writer writer;
+    private final int capacity;
+    private final long flushInterval;
+
+    /**
+     * values waiting for flush
+     */
+    private Map<String, Entry> pending = new LinkedHashMap<String, Entry>();
+
+    /**
+     * values being written by flush
+     */
+    private Map<String, Entry> writing = new HashMap<String, Entry>();
+
+    private final Object flushLock = new Object();
+
+    private Thread flusher;
+    private boolean closed;
+
+    /**
+     * @param writer writer of batches
+     * @param capacity max number of keys waiting for flush
+     * @param flushInterval milliseconds to collect values before flush
+     * @param name name of flusher thread
+     */
+    WriteBehindQueue(Writer writer, int capacity, long flushInterval,
+            String name) {
+        this.writer = writer;
+        this.capacity = capacity;
+        this.flushInterval = flushInterval;
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Put values of one save into queue, they are taken by one flush. If
+     * there is no room for new keys, it waits until flusher makes it.
+     *
+     * @param entries values to write
+     * @param timeout max milliseconds to wait for room
+     * @return false if there is no room after timeout
+     * @throws InterruptedException
+     */
+    synchronized boolean put(List<Entry> entries, long timeout)
+            throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("write-behind queue is closed");
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            int added = 0;
+            for (Entry e : entries) {
+                if (!pending.containsKey(e.name)) {
+                    added++;
+                }
+            }
+            // save larger than capacity is taken by empty queue
+            if (pending.size() + added <= capacity || pending.isEmpty()) {
+                break;
+            }
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        for (Entry e : entries) {
+            pending.put(e.name, e);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return number of keys waiting for flush
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Value of setting not written yet
+     *
+     * @param name key of setting
+     * @return entry or null if setting is not waiting for write
+     */
+    synchronized Entry get(String name) {
+        Entry e = pending.get(name);
+        return (e != null) ? e : writing.get(name);
+    }
+
+    /**
+     * @return values waiting for flush
+     */
+    synchronized List<Entry> pending() {
+        return new ArrayList<Entry>(pending.values());
+    }
+
+    /**
+     * Write all pending values now. If batch fails, its values are written
+     * one by one, so a value which can never be written doesn't block the
+     * others. Such value is dropped and logged.
+     *
+     * @throws Exception thrown by writer, values not written are kept in
+     * queue
+     */
+    void flush() throws Exception {
+        synchronized (flushLock) {
+            Map<String, Entry> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                writing = batch;
+                pending = new LinkedHashMap<String, Entry>();
+                notifyAll();
+            }
+            Collection<Entry> failed = batch.values();
+            Exception failure = null;
+            try {
+                try {
+                    writer.write(batch.values());
+                    failed = Collections.emptyList();
+                } catch (Exception ex) {
+                    List<Entry> kept = new ArrayList<Entry>();
+                    failure = writeEach(batch.values(), ex, kept);
+                    failed = kept;
+                }
+            } finally {
+                synchronized (this) {
+                    // values saved during the write are newer
+                    for (Entry e : failed) {
+                        if (!pending.containsKey(e.name)) {
+                            pending.put(e.name, e);
+                        }
+                    }
+                    writing = new HashMap<String, Entry>();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /*
+     * write values of failed batch one by one, failed ones are added to
+     * list unless they are dropped
+     *
+     * @return first failure of value kept in queue or null
+     */
+    private Exception writeEach(Collection<Entry> batch, Exception ex,
+            List<Entry> failed) {
+        Map<Entry, Exception> errors = new LinkedHashMap<Entry, Exception>();
+        boolean written = false;
+        if (batch.size() == 1) {
+            errors.put(batch.iterator().next(), ex);
+        } else {
+            for (Entry e : batch) {
+                try {
+                    writer.write(Collections.singletonList(e));
+                    written = true;
+                } catch (Exception err) {
+                    errors.put(e, err);
+                }
+            }
+        }
+        Exception failure = null;
+        for (Map.Entry<Entry, Exception> error : errors.entrySet()) {
+            Entry e = error.getKey();
+            Exception err = error.getValue();
+            // data source is reachable when others are written
+            if (written) {
+                e.attempts++;
+            }
+            if (writer.isPermanent(err) || e.attempts >= MAX_ATTEMPTS) {
+                logger.error("saved value of setting " + e.name
+                        + " can't be written, it is dropped", err);
+                continue;
+            }
+            failed.add(e);
+            if (failure == null) {
+                failure = err;
+            }
+        }
+        return failure;
+    }
+
+    private void flushLoop() {
+        int backoff = 1;
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    // collect more saves of the same keys
+                    pause(flushInterval);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                flush();
+                backoff = 1;
+            } catch (Exception ex) {
+                logger.error("write of saved settings failed, "
+                        + "it is retried", ex);
+                synchronized (this) {
+                    try {
+                        // data source may be down, don't hammer it
+                        pause(flushInterval * backoff);
+                        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * wait for given milliseconds unless queue is closed or full, puts
+     * don't wake it
+     */
+    private void pause(long interval) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + interval;
+        long wait = interval;
+        while (wait > 0 && !closed && pending.size() < capacity) {
+            wait(wait);
+            wait = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stop flusher and write pending values
+     *
+     * @throws Exception thrown by writer
+     */
+    void close() throws Exception {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = flusher;
+            flusher = null;
+            notifyAll();
+        }
+        if (t != null && t != Thread.currentThread()) {
+            t.join();
+        }
+        flush();
+    }
+}
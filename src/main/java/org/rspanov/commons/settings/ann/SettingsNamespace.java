@@ -0,0 +1,29 @@
+package org.rspanov.commons.settings.ann;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Namespace of settings of class. Settings of annotated class are stored
+ * with keys "namespace.fieldName" instead of "fieldName", so classes with
+ * the same field names don't collide, and storages can load the whole
+ * namespace by one prefix query.
+ *
+ * @author rspanov
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SettingsNamespace {
+
+    /**
+     * Namespace, prefix of keys of settings
+     *
+     * @return
+     */
+    String value();
+
+}
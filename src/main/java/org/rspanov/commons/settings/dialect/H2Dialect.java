@@ -0,0 +1,31 @@
+package org.rspanov.commons.settings.dialect;
+
+/**
+ * H2: merge into ... using, only value of existing setting is updated
+ *
+ * @author rspanov
+ */
+public class H2Dialect implements SqlDialect {
+
+    @Override
+    public String quote(String identifier) {
+        return identifier;
+    }
+
+    @Override
+    public String upsert(String table, String name, String value,
+            String description) {
+        return "merge into " + table + " t using (select "
+                + "cast(? as varchar) as n, "
+                + "cast(? as varchar) as v, "
+                + "cast(? as varchar) as d) s on (t." + name + " = s.n) "
+                + "when matched then update set t." + value + " = s.v "
+                + "when not matched then insert (" + name + ", " + value
+                + ", " + description + ") values (s.n, s.v, s.d)";
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return 4096;
+    }
+}
@@ -0,0 +1,27 @@
+package org.rspanov.commons.settings.dialect;
+
+/**
+ * MySql: insert ... on duplicate key update
+ *
+ * @author rspanov
+ */
+public class MySqlDialect implements SqlDialect {
+
+    @Override
+    public String quote(String identifier) {
+        return "`" + identifier + "`";
+    }
+
+    @Override
+    public String upsert(String table, String name, String value,
+            String description) {
+        return "insert into " + table + " (" + name + ", " + value + ", "
+                + description + ") values (?, ?, ?) on duplicate key update "
+                + value + " = values(" + value + ")";
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return 4096;
+    }
+}
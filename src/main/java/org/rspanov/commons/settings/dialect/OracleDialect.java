@@ -0,0 +1,34 @@
+package org.rspanov.commons.settings.dialect;
+
+/**
+ * Oracle: merge into ... using dual, parameters are cast as their types
+ * can't be derived from select list, "in" list is limited by 1000
+ * expressions
+ *
+ * @author rspanov
+ */
+public class OracleDialect implements SqlDialect {
+
+    @Override
+    public String quote(String identifier) {
+        return identifier;
+    }
+
+    @Override
+    public String upsert(String table, String name, String value,
+            String description) {
+        return "merge into " + table + " t using (select "
+                + "cast(? as varchar2(4000)) as n, "
+                + "cast(? as varchar2(4000)) as v, "
+                + "cast(? as varchar2(4000)) as d from dual) s on (t."
+                + name + " = s.n) "
+                + "when matched then update set t." + value + " = s.v "
+                + "when not matched then insert (" + name + ", " + value
+                + ", " + description + ") values (s.n, s.v, s.d)";
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return 1000;
+    }
+}
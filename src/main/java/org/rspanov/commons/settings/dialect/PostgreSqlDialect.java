@@ -0,0 +1,27 @@
+package org.rspanov.commons.settings.dialect;
+
+/**
+ * PostgreSQL 9.5+: insert ... on conflict do update
+ *
+ * @author rspanov
+ */
+public class PostgreSqlDialect implements SqlDialect {
+
+    @Override
+    public String quote(String identifier) {
+        return identifier;
+    }
+
+    @Override
+    public String upsert(String table, String name, String value,
+            String description) {
+        return "insert into " + table + " (" + name + ", " + value + ", "
+                + description + ") values (?, ?, ?) on conflict (" + name
+                + ") do update set " + value + " = excluded." + value;
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return 4096;
+    }
+}
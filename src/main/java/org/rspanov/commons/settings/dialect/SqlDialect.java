@@ -0,0 +1,38 @@
+package org.rspanov.commons.settings.dialect;
+
+/**
+ * SQL of a database used by JdbcSettingsStorage. Statements are built by
+ * storage once per its configuration, dialect only provides the parts which
+ * differ between databases.
+ *
+ * @author rspanov
+ */
+public interface SqlDialect {
+
+    /**
+     * Quote name of table or column
+     *
+     * @param identifier name of table or column
+     * @return name to use in SQL
+     */
+    String quote(String identifier);
+
+    /**
+     * Statement inserting a setting or updating value of existing one.
+     * Parameters are bound in order: name, value, description. Names are
+     * quoted already.
+     *
+     * @param table settings table
+     * @param name name column
+     * @param value value column
+     * @param description description column
+     * @return SQL of upsert
+     */
+    String upsert(String table, String name, String value,
+            String description);
+
+    /**
+     * @return max number of parameters in "in" list of one query
+     */
+    int getMaxInListSize();
+}
@@ -0,0 +1,59 @@
+package org.rspanov.commons.settings.invalidation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invalidation bus of one JVM: published keys are delivered to all
+ * subscribers at once by the publishing thread
+ *
+ * @author rspanov
+ */
+public class InProcessInvalidationBus implements InvalidationBus {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(InProcessInvalidationBus.class);
+
+    private final CopyOnWriteArrayList<InvalidationListener> listeners
+            = new CopyOnWriteArrayList<InvalidationListener>();
+
+    @Override
+    public void publish(Collection<String> keys) throws SettingsException {
+        deliver(keys);
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unsubscribe(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Call all subscribers, failure of one subscriber is logged and does
+     * not stop the others
+     *
+     * @param keys keys of changed settings
+     */
+    protected void deliver(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Collection<String> unmodifiable = Collections
+                .unmodifiableCollection(keys);
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.keysChanged(unmodifiable);
+            } catch (RuntimeException re) {
+                logger.error("invalidation listener failed", re);
+            }
+        }
+    }
+}
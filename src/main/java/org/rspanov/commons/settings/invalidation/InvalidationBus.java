@@ -0,0 +1,34 @@
+package org.rspanov.commons.settings.invalidation;
+
+import java.util.Collection;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * Channel between storages sharing one data source. Storage publishes keys
+ * of settings it has saved, other storages subscribed to the bus reload
+ * only these keys instead of full reload of all settings.
+ *
+ * Set it by SettingsStorage.setInvalidationBus.
+ *
+ * @author rspanov
+ */
+public interface InvalidationBus {
+
+    /**
+     * Notify subscribers about changed settings
+     *
+     * @param keys keys of changed settings
+     * @throws SettingsException if notification can't be sent
+     */
+    void publish(Collection<String> keys) throws SettingsException;
+
+    /**
+     * @param listener listener called with keys of changed settings
+     */
+    void subscribe(InvalidationListener listener);
+
+    /**
+     * @param listener subscribed listener
+     */
+    void unsubscribe(InvalidationListener listener);
+}
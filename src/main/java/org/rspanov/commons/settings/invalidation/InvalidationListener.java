@@ -0,0 +1,18 @@
+package org.rspanov.commons.settings.invalidation;
+
+import java.util.Collection;
+
+/**
+ * Subscriber of invalidation bus
+ *
+ * @author rspanov
+ */
+public interface InvalidationListener {
+
+    /**
+     * Settings are changed in data source by other storage or node
+     *
+     * @param keys keys of changed settings
+     */
+    void keysChanged(Collection<String> keys);
+}
@@ -0,0 +1,429 @@
+package org.rspanov.commons.settings.invalidation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invalidation bus over change-log table in the same database as settings,
+ * so no message broker is needed. Published keys are inserted into the
+ * table and delivered to subscribers of this node at once, other nodes
+ * poll the table for records added since their previous poll.
+ *
+ * Table must have identity column filled by database, e.g. for MySql:
+ * <pre>
+ * create table SETTINGS_CHANGES (
+ *     ID bigint auto_increment primary key,
+ *     NAME varchar(255) not null,
+ *     NODE varchar(64) not null,
+ *     CREATED timestamp not null)
+ * </pre>
+ * Identities are assigned at insert, so a record may be committed after
+ * records with greater ids. Poll remembers gaps in ids and reads them again
+ * until gapTimeout passes, records found there are delivered once. Old
+ * records are removed by purge.
+ *
+ * @author rspanov
+ */
+public class JdbcInvalidationBus extends InProcessInvalidationBus {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(JdbcInvalidationBus.class);
+
+    private final DataSource dataSource;
+
+    /**
+     * change-log table name
+     */
+    private String tableName = "SETTINGS_CHANGES";
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * identity column of change-log table
+     */
+    private String idField = "ID";
+
+    public String getIdField() {
+        return idField;
+    }
+
+    public void setIdField(String idField) {
+        this.idField = idField;
+    }
+
+    /**
+     * column with key of changed setting
+     */
+    private String nameField = "NAME";
+
+    public String getNameField() {
+        return nameField;
+    }
+
+    public void setNameField(String nameField) {
+        this.nameField = nameField;
+    }
+
+    /**
+     * column with id of publishing node
+     */
+    private String nodeField = "NODE";
+
+    public String getNodeField() {
+        return nodeField;
+    }
+
+    public void setNodeField(String nodeField) {
+        this.nodeField = nodeField;
+    }
+
+    /**
+     * column with time of change, used by purge only
+     */
+    private String createdField = "CREATED";
+
+    public String getCreatedField() {
+        return createdField;
+    }
+
+    public void setCreatedField(String createdField) {
+        this.createdField = createdField;
+    }
+
+    /**
+     * id of this node, records of the node are not delivered by poll as
+     * they were delivered at publishing
+     */
+    private String nodeId = UUID.randomUUID().toString();
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * interval of polling in milliseconds
+     */
+    private volatile long pollInterval = 1000;
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * milliseconds to wait for records missing between seen ids, longer
+     * than any transaction inserting into change-log table
+     */
+    private volatile long gapTimeout = 60000;
+
+    public long getGapTimeout() {
+        return gapTimeout;
+    }
+
+    public void setGapTimeout(long gapTimeout) {
+        this.gapTimeout = gapTimeout;
+    }
+
+    /**
+     * id of last record seen by poll, -1 before the watermark is taken
+     */
+    private long lastId = -1;
+
+    /**
+     * first ids of gaps found by poll, mapped to time they were found
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<Long, Long>();
+
+    /**
+     * ids of records seen after the first gap
+     */
+    private final NavigableSet<Long> seen = new TreeSet<Long>();
+
+    private volatile Thread poller;
+
+    /**
+     * Create bus over change-log table
+     *
+     * @param dataSource data source of change-log table
+     */
+    public JdbcInvalidationBus(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Insert keys into change-log table by one batch, then deliver them to
+     * subscribers of this node
+     */
+    @Override
+    public void publish(Collection<String> keys) throws SettingsException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        final String query = "insert into " + getTableName() + " ("
+                + getNameField() + ", " + getNodeField() + ", "
+                + getCreatedField() + ") values (?, ?, ?)";
+        try {
+            Connection conn = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = conn.prepareStatement(query);
+                try {
+                    Timestamp now = new Timestamp(System.currentTimeMillis());
+                    for (String key : keys) {
+                        stmt.setString(1, key);
+                        stmt.setString(2, getNodeId());
+                        stmt.setTimestamp(3, now);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+        deliver(keys);
+    }
+
+    /**
+     * Subscribe listener and remember the last record, so the first poll
+     * delivers changes made after subscription. Settings are loaded after
+     * their storage subscribes, so changes made during the load are not
+     * lost.
+     */
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        super.subscribe(listener);
+        try {
+            markLastId();
+        } catch (SettingsException se) {
+            logger.warn("last record of " + getTableName() + " is not read, "
+                    + "it is read by the first poll: " + se.getMessage(), se);
+        }
+    }
+
+    /*
+     * take the watermark of poll unless it is taken
+     */
+    private synchronized void markLastId() throws SettingsException {
+        if (lastId >= 0) {
+            return;
+        }
+        try {
+            Connection conn = dataSource.getConnection();
+            try {
+                lastId = selectLastId(conn);
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Read records added by other nodes since previous poll and deliver
+     * their keys to subscribers by one call. If the last record was not
+     * read at subscription, the first poll only remembers it.
+     *
+     * @return number of delivered keys
+     * @throws SettingsException
+     */
+    public int poll() throws SettingsException {
+        Set<String> keys = new LinkedHashSet<String>();
+        synchronized (this) {
+            try {
+                Connection conn = dataSource.getConnection();
+                try {
+                    if (lastId < 0) {
+                        lastId = selectLastId(conn);
+                        return 0;
+                    }
+                    selectChanges(conn, keys);
+                } finally {
+                    conn.close();
+                }
+            } catch (Exception ex) {
+                throw new SettingsException(ex);
+            }
+        }
+        deliver(keys);
+        return keys.size();
+    }
+
+    private long selectLastId(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("select max(" + getIdField()
+                    + ") from " + getTableName());
+            try {
+                return rs.next() ? rs.getLong(1) : 0L;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * collect keys of other nodes added after last seen id or in gaps not
+     * expired yet
+     */
+    private void selectChanges(Connection conn, Set<String> keys)
+            throws Exception {
+        long now = System.currentTimeMillis();
+        Iterator<Long> found = gaps.values().iterator();
+        while (found.hasNext()) {
+            if (now - found.next() >= gapTimeout) {
+                found.remove();
+            }
+        }
+        long after = gaps.isEmpty() ? lastId : gaps.firstKey() - 1;
+        seen.headSet(after, true).clear();
+        final String query = "select " + getIdField() + ", " + getNameField()
+                + ", " + getNodeField() + " from " + getTableName()
+                + " where " + getIdField() + " > ? order by " + getIdField();
+        long last = lastId;
+        PreparedStatement stmt = conn.prepareStatement(query);
+        try {
+            stmt.setLong(1, after);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    if (id > last) {
+                        if (id > last + 1) {
+                            gaps.put(last + 1, now);
+                        }
+                        last = id;
+                    }
+                    if (seen.add(id)
+                            && !getNodeId().equals(rs.getString(3))) {
+                        keys.add(rs.getString(2));
+                    }
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+        lastId = last;
+    }
+
+    /**
+     * Delete records older than given age. Age must be much longer than
+     * poll interval, so all nodes see the records before they are removed.
+     *
+     * @param age max age of kept records
+     * @param unit time unit of age
+     * @return number of deleted records
+     * @throws SettingsException
+     */
+    public int purge(long age, TimeUnit unit) throws SettingsException {
+        final String query = "delete from " + getTableName() + " where "
+                + getCreatedField() + " < ?";
+        try {
+            Connection conn = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = conn.prepareStatement(query);
+                try {
+                    stmt.setTimestamp(1, new Timestamp(
+                            System.currentTimeMillis() - unit.toMillis(age)));
+                    return stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                conn.close();
+            }
+        } catch (Exception ex) {
+            throw new SettingsException(ex);
+        }
+    }
+
+    /**
+     * Start polling of change-log table by daemon thread
+     */
+    public synchronized void startPolling() {
+        if (poller != null) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pollLoop();
+            }
+        }, "settings-invalidation-" + getTableName());
+        t.setDaemon(true);
+        poller = t;
+        t.start();
+    }
+
+    /**
+     * Stop polling of change-log table
+     */
+    public synchronized void stopPolling() {
+        Thread t = poller;
+        poller = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    public boolean isPolling() {
+        return poller != null;
+    }
+
+    private void pollLoop() {
+        try {
+            while (poller == Thread.currentThread()) {
+                try {
+                    poll();
+                } catch (SettingsException se) {
+                    logger.warn("poll of " + getTableName() + " failed: "
+                            + se.getMessage(), se);
+                }
+                Thread.sleep(pollInterval);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.rspanov.commons.settings.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+
+/**
+ * In-memory metrics. Durations of operations are counted in histograms with
+ * power of two buckets, so percentiles are approximate: reported value is
+ * the upper bound of bucket and it is at most twice the real one. Recording
+ * is lock-free and does not allocate.
+ *
+ * Use snapshot() to scrape all values at once.
+ *
+ * @author rspanov
+ */
+public class HistogramSettingsMetrics implements SettingsMetrics {
+
+    /**
+     * bucket i counts durations in [2^(i-1), 2^i) nanoseconds
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * histogram of one operation
+     */
+    private static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos, boolean success) {
+            long value = Math.max(nanos, 0);
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            totalNanos.addAndGet(value);
+            long max = maxNanos.get();
+            while (value > max && !maxNanos.compareAndSet(max, value)) {
+                max = maxNanos.get();
+            }
+        }
+
+        private long percentile(double p) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1,
+                            maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            failures.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+    }
+
+    private final Map<Operation, Histogram> histograms
+            = new EnumMap<Operation, Histogram>(Operation.class);
+
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong writeQueueDepth = new AtomicLong();
+    private final AtomicLong writeQueueMaxDepth = new AtomicLong();
+
+    private final Map<SettingsExceptionType, AtomicLong> validationFailures
+            = new EnumMap<SettingsExceptionType, AtomicLong>(
+                    SettingsExceptionType.class);
+
+    public HistogramSettingsMetrics() {
+        // all counters are created at once, so the maps are never changed
+        for (Operation op : Operation.values()) {
+            histograms.put(op, new Histogram());
+        }
+        for (SettingsExceptionType type : SettingsExceptionType.values()) {
+            validationFailures.put(type, new AtomicLong());
+        }
+    }
+
+    @Override
+    public void timing(Operation operation, long nanos, boolean success) {
+        histograms.get(operation).record(nanos, success);
+    }
+
+    @Override
+    public void roundTrips(int count) {
+        roundTrips.addAndGet(count);
+    }
+
+    @Override
+    public void validationFailure(String name, SettingsExceptionType type) {
+        validationFailures.get(type).incrementAndGet();
+    }
+
+    @Override
+    public void cacheLookups(int hits, int misses) {
+        cacheHits.addAndGet(hits);
+        cacheMisses.addAndGet(misses);
+    }
+
+    @Override
+    public void writeQueueDepth(int depth) {
+        writeQueueDepth.set(depth);
+        long max = writeQueueMaxDepth.get();
+        while (depth > max && !writeQueueMaxDepth.compareAndSet(max, depth)) {
+            max = writeQueueMaxDepth.get();
+        }
+    }
+
+    /**
+     * @param operation measured operation
+     * @return number of finished operations
+     */
+    public long getCount(Operation operation) {
+        return histograms.get(operation).count.get();
+    }
+
+    /**
+     * @param operation measured operation
+     * @return number of failed operations
+     */
+    public long getFailureCount(Operation operation) {
+        return histograms.get(operation).failures.get();
+    }
+
+    /**
+     * @param operation measured operation
+     * @return total duration of operations in nanoseconds
+     */
+    public long getTotalNanos(Operation operation) {
+        return histograms.get(operation).totalNanos.get();
+    }
+
+    /**
+     * @param operation measured operation
+     * @return max duration of operation in nanoseconds
+     */
+    public long getMaxNanos(Operation operation) {
+        return histograms.get(operation).maxNanos.get();
+    }
+
+    /**
+     * Approximate percentile of durations
+     *
+     * @param operation measured operation
+     * @param percentile percentile from 0 to 100
+     * @return duration in nanoseconds, 0 if there were no operations
+     */
+    public long getPercentileNanos(Operation operation, double percentile) {
+        return histograms.get(operation).percentile(percentile);
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return last reported number of keys in write-behind queue
+     */
+    public long getWriteQueueDepth() {
+        return writeQueueDepth.get();
+    }
+
+    /**
+     * @return max reported number of keys in write-behind queue
+     */
+    public long getWriteQueueMaxDepth() {
+        return writeQueueMaxDepth.get();
+    }
+
+    /**
+     * @param type reason of rejection
+     * @return number of rejected values
+     */
+    public long getValidationFailures(SettingsExceptionType type) {
+        return validationFailures.get(type).get();
+    }
+
+    /**
+     * Get all metrics for export, names are like "load.count", "load.p99",
+     * "connection.max", "roundTrips", "validationFailures.RESTRICTED_NULL_VALUE"
+     *
+     * @return map of metric name to value, durations are in nanoseconds
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Operation op : Operation.values()) {
+            Histogram h = histograms.get(op);
+            String prefix = op.name().toLowerCase(Locale.ROOT) + ".";
+            result.put(prefix + "count", h.count.get());
+            result.put(prefix + "failures", h.failures.get());
+            result.put(prefix + "totalNanos", h.totalNanos.get());
+            result.put(prefix + "max", h.maxNanos.get());
+            result.put(prefix + "p50", h.percentile(50));
+            result.put(prefix + "p90", h.percentile(90));
+            result.put(prefix + "p99", h.percentile(99));
+        }
+        result.put("roundTrips", roundTrips.get());
+        result.put("cacheHits", cacheHits.get());
+        result.put("cacheMisses", cacheMisses.get());
+        result.put("writeQueueDepth", writeQueueDepth.get());
+        result.put("writeQueueMaxDepth", writeQueueMaxDepth.get());
+        for (SettingsExceptionType type : SettingsExceptionType.values()) {
+            result.put("validationFailures." + type.name(),
+                    validationFailures.get(type).get());
+        }
+        return result;
+    }
+
+    /**
+     * Clear all metrics
+     */
+    public void reset() {
+        for (Histogram h : histograms.values()) {
+            h.reset();
+        }
+        roundTrips.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        writeQueueMaxDepth.set(writeQueueDepth.get());
+        for (AtomicLong counter : validationFailures.values()) {
+            counter.set(0);
+        }
+    }
+}
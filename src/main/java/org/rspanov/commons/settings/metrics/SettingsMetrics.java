@@ -0,0 +1,96 @@
+package org.rspanov.commons.settings.metrics;
+
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+
+/**
+ * Receiver of metrics of settings storage. Set it by
+ * SettingsStorage.setMetrics, storage without metrics does not measure
+ * anything.
+ *
+ * Methods are called by threads loading and saving settings, so they must
+ * be thread safe and fast.
+ *
+ * @author rspanov
+ */
+public interface SettingsMetrics {
+
+    /**
+     * measured operations of storages
+     */
+    enum Operation {
+
+        /**
+         * load of all settings of class or instance
+         */
+        LOAD,
+        /**
+         * save of all settings of class or instance
+         */
+        SAVE,
+        /**
+         * synchronization of single field, it is not measured when
+         * storage loads fields at once
+         */
+        SYNC_FIELD,
+        /**
+         * save of single field, it is not measured when storage saves
+         * fields at once
+         */
+        SAVE_VALUE,
+        /**
+         * getting of database connection from data source
+         */
+        CONNECTION,
+        /**
+         * read and parse of settings file
+         */
+        FILE_READ,
+        /**
+         * write of settings file
+         */
+        FILE_WRITE,
+        /**
+         * write of batch of queued settings by write-behind flusher
+         */
+        FLUSH
+    }
+
+    /**
+     * Operation is finished
+     *
+     * @param operation measured operation
+     * @param nanos duration of operation in nanoseconds
+     * @param success false if operation is failed
+     */
+    void timing(Operation operation, long nanos, boolean success);
+
+    /**
+     * Statements are executed by database
+     *
+     * @param count number of round trips to database
+     */
+    void roundTrips(int count);
+
+    /**
+     * Value of setting is rejected
+     *
+     * @param name name of setting
+     * @param type reason of rejection
+     */
+    void validationFailure(String name, SettingsExceptionType type);
+
+    /**
+     * Settings are looked up in cache
+     *
+     * @param hits number of settings found in cache
+     * @param misses number of settings absent or expired in cache
+     */
+    void cacheLookups(int hits, int misses);
+
+    /**
+     * Number of settings waiting in write-behind queue is changed
+     *
+     * @param depth number of keys waiting for flush
+     */
+    void writeQueueDepth(int depth);
+}
@@ -0,0 +1,137 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ * 
+ * @author rspanov
+ */
+public class CachingSettingsStorageTest {
+
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("caching-settings", ".properties");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private void write(String name, String value) throws Exception {
+		Properties props = new Properties();
+		props.setProperty(name, value);
+		FileWriter fw = new FileWriter(file);
+		try {
+			props.store(fw, "");
+		} finally {
+			fw.close();
+		}
+	}
+
+	@Test
+	public void testReadThrough() throws Exception {
+		CachingSettingsStorage storage = new CachingSettingsStorage(
+				new PropertySettingStorage(file.getPath()), 1, TimeUnit.HOURS,
+				SAME_THREAD);
+
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		assertEquals(9, storage.getMissCount());
+		assertEquals(0, storage.getHitCount());
+
+		// file changes are not visible until the values are refreshed
+		write("sampleInt", "555");
+		SampleObjectSettings cached = new SampleObjectSettings();
+		cached.setSampleInt(1);
+		storage.load(cached);
+		assertEquals(300, cached.getSampleInt());
+		assertEquals(9, storage.getHitCount());
+		assertEquals(0, storage.getRefreshCount());
+
+		// stale values are still used, and refreshed in background
+		storage.setRefreshAfter(0, TimeUnit.MILLISECONDS);
+		storage.load(cached);
+		assertEquals(300, cached.getSampleInt());
+		assertEquals(9, storage.getRefreshCount());
+
+		storage.load(cached);
+		assertEquals(555, cached.getSampleInt());
+
+		// saving goes through to the file and into the cache
+		cached.setSampleInt(777);
+		storage.save(cached);
+		SampleObjectSettings saved = new SampleObjectSettings();
+		new PropertySettingStorage(file.getPath()).load(saved);
+		assertEquals(777, saved.getSampleInt());
+		storage.setRefreshAfter(1, TimeUnit.HOURS);
+		storage.load(saved);
+		assertEquals(777, saved.getSampleInt());
+	}
+
+	@Test
+	public void testRawValues() throws Exception {
+		final List<String> read = new ArrayList<String>();
+		MemorySettingsStorage memory = new MemorySettingsStorage() {
+			@Override
+			public Map<String, String> readValues(Collection<String> names)
+					throws SettingsException {
+				read.addAll(names);
+				return super.readValues(names);
+			}
+		};
+		memory.put("sampleInt", "007");
+		CachingSettingsStorage storage = new CachingSettingsStorage(memory, 1,
+				TimeUnit.HOURS, SAME_THREAD);
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		assertEquals(7, settings.getSampleInt());
+
+		// only missed keys are read
+		storage.invalidate("sampleInt");
+		read.clear();
+		storage.load(settings);
+		assertEquals(Arrays.asList("sampleInt"), read);
+
+		// refresh finds the same raw value, it is not a change
+		final List<String> changed = new ArrayList<String>();
+		storage.addChangeListener(new SettingChangeListener() {
+			@Override
+			public void settingChanged(Field field, String oldValue,
+					String newValue, Object o) {
+				changed.add(field.getName());
+			}
+		});
+		storage.setRefreshAfter(0, TimeUnit.MILLISECONDS);
+		storage.load(settings);
+		storage.load(settings);
+		assertTrue(storage.getRefreshCount() > 0);
+		assertTrue(changed.toString(), changed.isEmpty());
+	}
+}
@@ -0,0 +1,115 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.CompositeSettingsStorage.WritePolicy;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ *
+ * @author rspanov
+ */
+public class CompositeSettingsStorageTest {
+
+	private File defaults;
+	private File overrides;
+
+	@Before
+	public void setUp() throws Exception {
+		defaults = File.createTempFile("defaults-settings", ".properties");
+		overrides = File.createTempFile("overrides-settings", ".properties");
+		overrides.delete();
+		Properties props = new Properties();
+		props.setProperty("first.value", "bundled");
+		FileWriter fw = new FileWriter(defaults);
+		try {
+			props.store(fw, "");
+		} finally {
+			fw.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		defaults.delete();
+		overrides.delete();
+	}
+
+	private static Properties read(File file) throws Exception {
+		Properties props = new Properties();
+		FileReader fr = new FileReader(file);
+		try {
+			props.load(fr);
+		} finally {
+			fr.close();
+		}
+		return props;
+	}
+
+	@Test
+	public void testLayers() throws Exception {
+		final AtomicInteger memoryReads = new AtomicInteger();
+		MemorySettingsStorage memory = new MemorySettingsStorage() {
+			@Override
+			public Map<String, String> readValues(Collection<String> names)
+					throws SettingsException {
+				memoryReads.incrementAndGet();
+				return super.readValues(names);
+			}
+		};
+		CompositeSettingsStorage storage = new CompositeSettingsStorage();
+		storage.addLayer(new PropertySettingStorage(overrides.getPath()),
+				WritePolicy.WRITE_THROUGH_WITH_DEFAULTS);
+		storage.addLayer(new PropertySettingStorage(defaults.getPath()),
+				WritePolicy.READ_ONLY);
+		storage.addLayer(0, memory, WritePolicy.READ_ONLY);
+
+		SampleNamespaceSettings.First settings
+				= new SampleNamespaceSettings.First();
+		storage.load(settings);
+		assertEquals("bundled", settings.value);
+		assertEquals(1, settings.port);
+		// only the setting found nowhere is added to writable layer
+		Properties written = read(overrides);
+		assertEquals("1", written.getProperty("first.port"));
+		assertFalse(written.containsKey("first.value"));
+
+		// reads are served by the flat table
+		int reads = memoryReads.get();
+		Map<String, String> values = storage.readValues(Arrays.asList(
+				"first.value", "first.port"));
+		assertEquals("bundled", values.get("first.value"));
+		assertEquals("1", values.get("first.port"));
+		assertEquals(reads, memoryReads.get());
+
+		// upper layer wins
+		memory.put("first.port", "20");
+		storage.reload(Arrays.asList("first.port"));
+		storage.load(settings);
+		assertEquals(20, settings.port);
+
+		// only changed setting is written, read only layers are untouched
+		settings.value = "changed";
+		storage.saveChanged(settings);
+		written = read(overrides);
+		assertEquals("changed", written.getProperty("first.value"));
+		assertEquals("1", written.getProperty("first.port"));
+		assertEquals("bundled", read(defaults).getProperty("first.value"));
+		assertTrue(storage.readValues(Arrays.asList("first.value"))
+				.containsValue("changed"));
+		assertEquals("20", storage.readValues(Arrays.asList("first.port"))
+				.get("first.port"));
+	}
+}
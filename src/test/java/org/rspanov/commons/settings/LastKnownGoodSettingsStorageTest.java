@@ -0,0 +1,139 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+
+/**
+ *
+ * @author rspanov
+ */
+public class LastKnownGoodSettingsStorageTest {
+
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/*
+	 * storage of unavailable data source
+	 */
+	private static final SettingsStorage DOWN = new SettingsStorage() {
+		@Override
+		public void syncField(Field field, Object o) throws SettingsException {
+			throw new SettingsException("down", SettingsExceptionType.OTHERS);
+		}
+
+		@Override
+		public void saveValue(Field field, Object o) throws SettingsException {
+			throw new SettingsException("down", SettingsExceptionType.OTHERS);
+		}
+
+		@Override
+		public Map<String, String> readValues(Collection<String> names)
+				throws SettingsException {
+			throw new SettingsException("down", SettingsExceptionType.OTHERS);
+		}
+	};
+
+	private File file;
+	private File snapshot;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("lkg-settings", ".properties");
+		file.delete();
+		snapshot = File.createTempFile("lkg-settings", ".snapshot");
+		snapshot.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		snapshot.delete();
+	}
+
+	private void write(String name, String value) throws Exception {
+		Properties props = new Properties();
+		props.setProperty(name, value);
+		FileWriter fw = new FileWriter(file);
+		try {
+			props.store(fw, "");
+		} finally {
+			fw.close();
+		}
+	}
+
+	@Test
+	public void testBootFromSnapshot() throws Exception {
+		write("sampleInt", "10");
+		LastKnownGoodSettingsStorage first = new LastKnownGoodSettingsStorage(
+				new PropertySettingStorage(file.getPath()), snapshot.getPath(),
+				SAME_THREAD);
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		first.load(loaded);
+		assertEquals(10, loaded.getSampleInt());
+		assertEquals(0, first.getSnapshotLoadCount());
+		assertTrue(snapshot.exists());
+
+		// next start binds snapshot, then reconciles with changed file
+		write("sampleInt", "20");
+		final List<Runnable> background = new ArrayList<Runnable>();
+		LastKnownGoodSettingsStorage second = new LastKnownGoodSettingsStorage(
+				new PropertySettingStorage(file.getPath()), snapshot.getPath(),
+				new Executor() {
+					@Override
+					public void execute(Runnable command) {
+						background.add(command);
+					}
+				});
+		final List<String> changes = new ArrayList<String>();
+		second.addChangeListener(new SettingChangeListener() {
+			@Override
+			public void settingChanged(Field field, String oldValue,
+					String newValue, Object o) {
+				changes.add(field.getName() + "=" + newValue);
+			}
+		});
+		SampleObjectSettings booted = new SampleObjectSettings();
+		second.load(booted);
+		assertEquals(10, booted.getSampleInt());
+		assertEquals(1, second.getSnapshotLoadCount());
+		for (Runnable r : new ArrayList<Runnable>(background)) {
+			r.run();
+		}
+		assertEquals(20, booted.getSampleInt());
+		assertEquals(1, second.getReconcileCount());
+		assertTrue(changes.contains("sampleInt=20"));
+	}
+
+	@Test
+	public void testStorageDown() throws Exception {
+		write("sampleInt", "10");
+		new LastKnownGoodSettingsStorage(new PropertySettingStorage(
+				file.getPath()), snapshot.getPath(), SAME_THREAD)
+				.load(new SampleObjectSettings());
+
+		LastKnownGoodSettingsStorage storage = new LastKnownGoodSettingsStorage(
+				DOWN, snapshot.getPath(), SAME_THREAD);
+		SampleObjectSettings booted = new SampleObjectSettings();
+		storage.load(booted);
+		assertEquals(10, booted.getSampleInt());
+		assertEquals(1, storage.getReconcileFailureCount());
+	}
+}
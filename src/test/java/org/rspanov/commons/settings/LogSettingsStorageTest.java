@@ -0,0 +1,261 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+
+/**
+ *
+ * @author rspanov
+ */
+public class LogSettingsStorageTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("settings", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testLoadSave() throws Exception {
+		LogSettingsStorage storage = new LogSettingsStorage(file.getPath());
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		long size = storage.getFileSize();
+		saved.setSampleInt(42);
+		saved.setSampleString("changed");
+		storage.saveChanged(saved);
+		assertTrue(storage.getGarbageSize() > 0);
+		assertTrue(storage.getFileSize() > size);
+		storage.close();
+
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(42, loaded.getSampleInt());
+		assertEquals("changed", loaded.getSampleString());
+	}
+
+	@Test
+	public void testDamagedTail() throws Exception {
+		LogSettingsStorage storage = new LogSettingsStorage(file.getPath());
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		saved.setSampleInt(1);
+		storage.saveChanged(saved);
+		long valid = file.length();
+		saved.setSampleInt(2);
+		storage.saveChanged(saved);
+		storage.close();
+
+		// damage checksummed payload of the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(file.length() - 1);
+			raf.write('x');
+			// and a record cut by crash after it
+			raf.write(new byte[] { 0, 0, 0, 20, 1, 2 });
+		} finally {
+			raf.close();
+		}
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(1, loaded.getSampleInt());
+		assertEquals(valid, file.length());
+	}
+
+	@Test
+	public void testDamagedRecord() throws Exception {
+		LogSettingsStorage storage = new LogSettingsStorage(file.getPath());
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		saved.setSampleInt(1);
+		storage.saveChanged(saved);
+		long damaged = file.length();
+		saved.setSampleInt(2);
+		storage.saveChanged(saved);
+		saved.setSampleString("after");
+		storage.saveChanged(saved);
+		storage.close();
+		long size = file.length();
+
+		// damage checksummed payload of the record in the middle
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(damaged + 12);
+			raf.write('x');
+		} finally {
+			raf.close();
+		}
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		// it is skipped, the records after it are kept
+		assertEquals(1, loaded.getSampleInt());
+		assertEquals("after", loaded.getSampleString());
+		assertEquals(size, file.length());
+	}
+
+	@Test
+	public void testNotLogFile() throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(new byte[] { 1, 2, 3 });
+		} finally {
+			raf.close();
+		}
+		try {
+			new LogSettingsStorage(file.getPath())
+					.load(new SampleObjectSettings());
+			fail();
+		} catch (SettingsException se) {
+			// short file is not overwritten
+		}
+		assertEquals(3, file.length());
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		LogSettingsStorage storage = new LogSettingsStorage(file.getPath());
+		storage.setSync(false);
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		for (int i = 0; i < 100; i++) {
+			saved.setSampleLong(i);
+			storage.saveChanged(saved);
+		}
+		long size = storage.getFileSize();
+		storage.compact();
+		assertEquals(0, storage.getGarbageSize());
+		assertTrue(storage.getFileSize() < size);
+		saved.setSampleInt(7);
+		storage.saveChanged(saved);
+		storage.close();
+
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(99, loaded.getSampleLong());
+		assertEquals(7, loaded.getSampleInt());
+	}
+
+	@Test
+	public void testBackgroundCompaction() throws Exception {
+		LogSettingsStorage storage = new LogSettingsStorage(file.getPath());
+		storage.setSync(false);
+		storage.setMinCompactionSize(0);
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		for (int i = 0; i < 1000; i++) {
+			saved.setSampleLong(i);
+			storage.saveChanged(saved);
+		}
+		// compaction starts when garbage is a half of file
+		long deadline = System.currentTimeMillis() + 5000;
+		while (storage.getFileSize() > 1000 * 10
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(storage.getFileSize() < 1000 * 10);
+		storage.close();
+
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(999, loaded.getSampleLong());
+	}
+
+	@Test
+	public void testConcurrentCompaction() throws Exception {
+		final LogSettingsStorage storage = new LogSettingsStorage(
+				file.getPath());
+		storage.setSync(false);
+		storage.setMinCompactionSize(0);
+		final SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		final AtomicReference<Exception> failure
+				= new AtomicReference<Exception>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++) {
+							storage.compact();
+						}
+					} catch (Exception ex) {
+						failure.set(ex);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (int i = 0; i < 500; i++) {
+			synchronized (saved) {
+				saved.setSampleLong(i);
+				storage.saveChanged(saved);
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get());
+		storage.compact();
+		assertEquals(0, storage.getGarbageSize());
+		storage.close();
+
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(499, loaded.getSampleLong());
+	}
+
+	@Test
+	public void testCloseDuringCompaction() throws Exception {
+		final LogSettingsStorage storage = new LogSettingsStorage(
+				file.getPath());
+		storage.setSync(false);
+		SampleObjectSettings saved = new SampleObjectSettings();
+		storage.load(saved);
+		for (int i = 0; i < 1000; i++) {
+			saved.setSampleLong(i);
+			storage.saveChanged(saved);
+		}
+		final AtomicReference<Exception> failure
+				= new AtomicReference<Exception>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					storage.compact();
+				} catch (Exception ex) {
+					failure.set(ex);
+				}
+			}
+		});
+		thread.start();
+		storage.close();
+		thread.join();
+		// log is either compacted or left as is
+		assertNull(failure.get());
+		storage.close();
+
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		new LogSettingsStorage(file.getPath()).load(loaded);
+		assertEquals(999, loaded.getSampleLong());
+	}
+}
@@ -0,0 +1,160 @@
+package org.rspanov.commons.settings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import static junit.framework.TestCase.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that MappedPropertiesParser gives the same result
+ * as java.util.Properties
+ *
+ * @author rspanov
+ */
+public class MappedPropertiesParserTest {
+
+	private static final String SAMPLE = "# comment\n"
+			+ "! another comment \\\n"
+			+ "simple=value\n"
+			+ "   indented : value with spaces   \n"
+			+ "spaced key\n"
+			+ "empty=\n"
+			+ "colon:value\n"
+			+ "escaped\\ key\\=x = a\\tb\\nc\\\\d\\u0041\\u00e9\n"
+			+ "multi = first \\\n"
+			+ "        second \\\r\n"
+			+ "  # not a comment\r\n"
+			+ "windows=crlf\r\n"
+			+ "\n\n"
+			+ "unicode=привет\n"
+			+ "key\\:with\\:colons=v\n"
+			+ "double==value\n"
+			+ "trailing=backslash\\";
+
+	/**
+	 * edge cases of line continuations and comments
+	 */
+	private static final String[] EDGE_CASES = {
+		"\\",
+		"\r\\",
+		"#\n\\",
+		"a=b\n\\\n",
+		"=b\n\\",
+		"\\\n! a!#b",
+		"\\\n  # c\nd=e",
+		"\n\\\r\t#\r\t\t",
+		"a=b\\\r",
+		"a=b\\\r\n c",
+		"a\\\\\nb",
+		"  \t\f\n\r\n",
+		"!a\\\nb=c",
+		"key=a\\\n#b",
+		"key=a\\\r\n  !b\r\nc=d"
+	};
+
+	private Map<String, String> parse(PropertiesParser parser, File f)
+			throws Exception {
+		Map<String, String> result = new HashMap<String, String>();
+		parser.parse(f, StandardCharsets.UTF_8, result);
+		return result;
+	}
+
+	private static void write(File f, byte[] content) throws Exception {
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+	}
+
+	@Test
+	public void testCompatibility() throws Exception {
+		File f = File.createTempFile("parser", ".properties");
+		try {
+			write(f, SAMPLE.getBytes(StandardCharsets.UTF_8));
+			Map<String, String> expected = parse(
+					new StandardPropertiesParser(), f);
+			Map<String, String> actual = parse(new MappedPropertiesParser(), f);
+			assertEquals(12, expected.size());
+			assertEquals(expected, actual);
+			assertEquals("first second # not a comment", actual.get("multi"));
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testEdgeCases() throws Exception {
+		for (String text : EDGE_CASES) {
+			Properties props = new Properties();
+			props.load(new StringReader(text));
+			Map<String, String> expected = new HashMap<String, String>();
+			for (String key : props.stringPropertyNames()) {
+				expected.put(key, props.getProperty(key));
+			}
+			Map<String, String> actual = new HashMap<String, String>();
+			char[] chars = ("#" + text + "#").toCharArray();
+			MappedPropertiesParser.parse(chars, 1, chars.length - 1, actual);
+			assertEquals(text, expected, actual);
+
+			// chunks of mapped file end at any character
+			for (int chunk = 1; chunk <= 3; chunk++) {
+				actual = new HashMap<String, String>();
+				MappedPropertiesParser.parse(new File("edge.properties"),
+						ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)),
+						StandardCharsets.UTF_8, chunk, actual);
+				assertEquals(text, expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testCommentAfterContinuation() throws Exception {
+		char[] chars = "key=a\\\n#b\n".toCharArray();
+		Map<String, String> actual = new HashMap<String, String>();
+		MappedPropertiesParser.parse(chars, 0, chars.length, actual);
+		assertEquals("a#b", actual.get("key"));
+	}
+
+	@Test
+	public void testChunks() throws Exception {
+		byte[] sample = SAMPLE.getBytes(StandardCharsets.UTF_8);
+		Properties props = new Properties();
+		props.load(new StringReader(SAMPLE));
+		for (int chunk : new int[] { 1, 2, 7, 64 }) {
+			Map<String, String> actual = new HashMap<String, String>();
+			MappedPropertiesParser.parse(new File("sample.properties"),
+					ByteBuffer.wrap(sample), StandardCharsets.UTF_8, chunk,
+					actual);
+			assertEquals(props, actual);
+		}
+
+		// invalid UTF-8 after the first chunk is read as ISO-8859-1
+		Map<String, String> actual = new HashMap<String, String>();
+		MappedPropertiesParser.parse(new File("legacy.properties"),
+				ByteBuffer.wrap("a=1\nname=caf\u00e9\n".getBytes(
+						StandardCharsets.ISO_8859_1)),
+				StandardCharsets.UTF_8, 4, actual);
+		assertEquals("1", actual.get("a"));
+		assertEquals("caf\u00e9", actual.get("name"));
+	}
+
+	@Test
+	public void testLegacyCharset() throws Exception {
+		File f = File.createTempFile("parser", ".properties");
+		try {
+			write(f, "name=caf\u00e9\n".getBytes(StandardCharsets.ISO_8859_1));
+			Map<String, String> actual = parse(new MappedPropertiesParser(), f);
+			assertEquals("caf\u00e9", actual.get("name"));
+		} finally {
+			f.delete();
+		}
+	}
+}
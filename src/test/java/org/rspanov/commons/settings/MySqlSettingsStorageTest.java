@@ -0,0 +1,631 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+import org.rspanov.commons.settings.invalidation.InProcessInvalidationBus;
+import org.rspanov.commons.settings.invalidation.InvalidationListener;
+import org.rspanov.commons.settings.invalidation.JdbcInvalidationBus;
+import org.rspanov.commons.settings.metrics.HistogramSettingsMetrics;
+import org.rspanov.commons.settings.metrics.SettingsMetrics.Operation;
+
+/**
+ * MySqlSettingsStorage test against H2 database in MySql mode
+ *
+ * @author rspanov
+ */
+public class MySqlSettingsStorageTest {
+
+	private JdbcDataSource h2;
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private DataSource dataSource;
+
+	@Before
+	public void setUp() throws Exception {
+		h2 = new JdbcDataSource();
+		h2.setURL("jdbc:h2:mem:mysql;MODE=MySQL;NON_KEYWORDS=VALUE;DB_CLOSE_DELAY=-1");
+		execute("create table SETTINGS (NAME varchar(255) primary key, "
+				+ "VALUE varchar(4000), DESCRIPTION varchar(4000))");
+		dataSource = (DataSource) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { DataSource.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getConnection")) {
+							connections.incrementAndGet();
+						}
+						return method.invoke(h2, args);
+					}
+				});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		execute("drop table SETTINGS");
+	}
+
+	private void execute(String sql) throws Exception {
+		Connection conn = h2.getConnection();
+		try {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+
+		// empty table: defaults are inserted with one connection
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		assertEquals(1, connections.get());
+		assertEquals("Test string", settings.getSampleString());
+
+		execute("update SETTINGS set VALUE = 'false' where NAME = 'sampleBoolean'");
+		execute("update SETTINGS set VALUE = '777' where NAME = 'sampleLong'");
+		execute("update SETTINGS set VALUE = 'TWO' where NAME = 'sampleEnum'");
+
+		connections.set(0);
+		SampleObjectSettings loaded = new SampleObjectSettings();
+		storage.load(loaded);
+		assertEquals(1, connections.get());
+		assertFalse(loaded.isSampleBoolean());
+		assertEquals(777, loaded.getSampleLong());
+		assertEquals(SampleEnum.TWO, loaded.getSampleEnum());
+		assertTrue(loaded.getSampleAtomicBool().get());
+		assertEquals(400, loaded.getSampleAtomicInteger().get());
+	}
+
+	private String select(String name) throws Exception {
+		Connection conn = h2.getConnection();
+		try {
+			PreparedStatement stmt = conn
+					.prepareStatement("select VALUE from SETTINGS where NAME = ?");
+			try {
+				stmt.setString(1, name);
+				ResultSet rs = stmt.executeQuery();
+				try {
+					return rs.next() ? rs.getString(1) : null;
+				} finally {
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testBatchSave() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		SampleObjectSettings settings = new SampleObjectSettings();
+		settings.setSampleString("saved string");
+		settings.setSampleInt(42);
+		settings.getSampleAtomicLong().set(43);
+
+		storage.save(settings);
+		assertEquals(1, connections.get());
+		assertEquals("saved string", select("sampleString"));
+		assertEquals("42", select("sampleInt"));
+		assertEquals("43", select("sampleAtomicLong"));
+
+		// invalid class is rejected before anything is written
+		SampleNotNullSettings.NOT_NULL_STRING = null;
+		try {
+			storage.save(SampleNotNullSettings.class);
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.RESTRICTED_NULL_VALUE,
+					se.getExceptionType());
+		}
+		assertNull(select("NOT_NULL_STRING"));
+		// empty string is null for a not nullable field
+		SampleNotNullSettings.NOT_NULL_STRING = "";
+		try {
+			storage.save(SampleNotNullSettings.class);
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.RESTRICTED_NULL_VALUE,
+					se.getExceptionType());
+		}
+		assertNull(select("NOT_NULL_STRING"));
+	}
+
+	@Test
+	public void testIncrementalRefresh() throws Exception {
+		execute("alter table SETTINGS add column VERSION bigint default 0 not null");
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.setVersionField("VERSION");
+
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.refresh(settings);
+		assertEquals(200, settings.getSampleLong());
+		execute("update SETTINGS set VERSION = 1");
+		storage.load(settings);
+
+		execute("update SETTINGS set VALUE = '777', VERSION = 2 where NAME = 'sampleLong'");
+		execute("update SETTINGS set VALUE = '888' where NAME = 'sampleInt'");
+		settings.setSampleString("not stored");
+
+		storage.refresh(settings);
+		assertEquals(777, settings.getSampleLong());
+		// record was not changed since last load
+		assertEquals(300, settings.getSampleInt());
+		assertEquals("not stored", settings.getSampleString());
+
+		execute("update SETTINGS set VALUE = '999', VERSION = 3 where NAME = 'sampleInt'");
+		storage.refresh(settings);
+		assertEquals(999, settings.getSampleInt());
+		assertEquals(777, settings.getSampleLong());
+
+		// records of other classes don't move the watermark
+		SampleNamespaceSettings.First first = new SampleNamespaceSettings.First();
+		storage.load(first);
+		execute("update SETTINGS set VERSION = 3 where NAME like 'first.%'");
+		storage.refresh(first);
+		execute("insert into SETTINGS (NAME, VALUE, VERSION) values ('other', 'x', 10)");
+		execute("update SETTINGS set VALUE = '5', VERSION = 10 where NAME = 'first.port'");
+		storage.refresh(settings);
+		storage.refresh(first);
+		assertEquals(5, first.port);
+		execute("update SETTINGS set VALUE = '111', VERSION = 4 where NAME = 'sampleInt'");
+		storage.refresh(settings);
+		assertEquals(111, settings.getSampleInt());
+	}
+
+	@Test
+	public void testNullVersion() throws Exception {
+		execute("insert into SETTINGS (NAME, VALUE) values ('sampleLong', '555')");
+		// records written before version field was added
+		execute("alter table SETTINGS add column VERSION bigint");
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.setVersionField("VERSION");
+
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		assertEquals(555, settings.getSampleLong());
+		assertEquals("555", select("sampleLong"));
+		storage.refresh(settings);
+		assertEquals(555, settings.getSampleLong());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+
+		// select of values and insert of defaults
+		storage.load(new SampleObjectSettings());
+		assertEquals(1, metrics.getCount(Operation.LOAD));
+		assertEquals(1, metrics.getCount(Operation.CONNECTION));
+		assertEquals(2, metrics.getRoundTrips());
+		assertTrue(metrics.getPercentileNanos(Operation.LOAD, 99) > 0);
+		assertTrue(metrics.getPercentileNanos(Operation.LOAD, 99)
+				<= metrics.getMaxNanos(Operation.LOAD));
+
+		SampleNotNullSettings.NOT_NULL_STRING = null;
+		try {
+			storage.save(SampleNotNullSettings.class);
+			fail();
+		} catch (SettingsException se) {
+			// expected
+		}
+		assertEquals(1, metrics.getFailureCount(Operation.SAVE));
+		assertEquals(1, metrics.getValidationFailures(
+				SettingsExceptionType.RESTRICTED_NULL_VALUE));
+		assertEquals(Long.valueOf(1), metrics.snapshot().get("save.count"));
+
+		// nothing is measured without metrics
+		storage.setMetrics(null);
+		storage.load(new SampleObjectSettings());
+		assertEquals(1, metrics.getCount(Operation.LOAD));
+	}
+
+	@Test
+	public void testChangeListener() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		final List<String> changes = new ArrayList<String>();
+		storage.addChangeListener(new SettingChangeListener() {
+			@Override
+			public void settingChanged(Field field, String oldValue,
+					String newValue, Object o) {
+				changes.add(field.getName() + ":" + oldValue + "->" + newValue);
+			}
+		});
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		storage.load(settings);
+		assertTrue(changes.isEmpty());
+
+		execute("update SETTINGS set VALUE = '777' where NAME = 'sampleLong'");
+		// unchanged values are not written again
+		settings.setSampleInt(5);
+		storage.load(settings);
+		assertEquals(Arrays.asList("sampleLong:200->777"), changes);
+		assertEquals(777, settings.getSampleLong());
+		assertEquals(5, settings.getSampleInt());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		final List<String> changes = new ArrayList<String>();
+		storage.addChangeListener(new SettingChangeListener() {
+			@Override
+			public void settingChanged(Field field, String oldValue,
+					String newValue, Object o) {
+				changes.add(field.getName());
+			}
+		});
+		SettingsSnapshot<SampleObjectSettings> snapshot
+				= new SettingsSnapshot<SampleObjectSettings>(
+						SampleObjectSettings.class);
+		storage.register(snapshot);
+		SampleObjectSettings first = snapshot.get();
+		assertEquals(300, first.getSampleInt());
+
+		// invalid value: nothing is published
+		execute("update SETTINGS set VALUE = '777' where NAME = 'sampleLong'");
+		execute("update SETTINGS set VALUE = 'bad' where NAME = 'sampleInt'");
+		try {
+			storage.load(snapshot);
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.INVALID_VALUE_EXCEPTION,
+					se.getExceptionType());
+		}
+		assertTrue(first == snapshot.get());
+		assertEquals(200, first.getSampleLong());
+
+		execute("update SETTINGS set VALUE = '301' where NAME = 'sampleInt'");
+		storage.load(snapshot);
+		assertEquals(777, snapshot.get().getSampleLong());
+		assertEquals(301, snapshot.get().getSampleInt());
+		// published instance is never changed
+		assertEquals(200, first.getSampleLong());
+		assertEquals(Arrays.asList("sampleLong", "sampleInt"), changes);
+	}
+
+	@Test
+	public void testSaveChanged() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		storage.setMetrics(metrics);
+
+		storage.saveChanged(settings);
+		assertEquals(0, metrics.getRoundTrips());
+
+		execute("update SETTINGS set VALUE = '777' where NAME = 'sampleLong'");
+		settings.setSampleInt(42);
+		storage.saveChanged(settings);
+		assertEquals(1, metrics.getRoundTrips());
+		assertEquals("42", select("sampleInt"));
+		// unchanged field does not overwrite the record
+		assertEquals("777", select("sampleLong"));
+
+		storage.saveChanged(settings);
+		assertEquals(1, metrics.getRoundTrips());
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.load(new SampleNamespaceSettings.First());
+		storage.load(new SampleNamespaceSettings.Second());
+		assertEquals("first value", select("first.value"));
+		assertEquals("second value", select("second.value"));
+
+		execute("update SETTINGS set VALUE = '2' where NAME = 'first.port'");
+		// record of other namespace with the same prefix is not selected
+		execute("insert into SETTINGS (NAME, VALUE) values ('firstly.port', 'x')");
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+		SampleNamespaceSettings.First first = new SampleNamespaceSettings.First();
+		storage.load(first);
+		assertEquals(2, first.port);
+		assertEquals(1, metrics.getRoundTrips());
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		execute("create table SETTINGS_CHANGES (ID bigint auto_increment "
+				+ "primary key, NAME varchar(255) not null, "
+				+ "NODE varchar(64) not null, CREATED timestamp not null)");
+		try {
+			MySqlSettingsStorage nodeA = new MySqlSettingsStorage(dataSource);
+			JdbcInvalidationBus busA = new JdbcInvalidationBus(dataSource);
+			nodeA.setInvalidationBus(busA);
+			MySqlSettingsStorage nodeB = new MySqlSettingsStorage(dataSource);
+			JdbcInvalidationBus busB = new JdbcInvalidationBus(dataSource);
+			nodeB.setInvalidationBus(busB);
+			assertEquals(0, busA.poll());
+			assertEquals(0, busB.poll());
+
+			SampleNamespaceSettings.First a = new SampleNamespaceSettings.First();
+			nodeA.register(a);
+			SampleNamespaceSettings.First b = new SampleNamespaceSettings.First();
+			nodeB.load(b);
+			b.port = 5;
+			nodeB.saveChanged(b);
+			// own changes are not delivered again
+			assertEquals(0, busB.poll());
+
+			HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+			nodeA.setMetrics(metrics);
+			assertEquals(1, busA.poll());
+			assertEquals(5, a.port);
+			assertEquals(1, metrics.getRoundTrips());
+			assertEquals(0, busA.poll());
+
+			// keys not registered on node are not read
+			nodeB.save(new SampleNamespaceSettings.Second());
+			assertEquals(1, busA.poll());
+			assertEquals(1, metrics.getRoundTrips());
+
+			assertEquals(0, busA.purge(1, TimeUnit.HOURS));
+			assertEquals(2, busA.purge(-1, TimeUnit.HOURS));
+		} finally {
+			execute("drop table SETTINGS_CHANGES");
+		}
+	}
+
+	@Test
+	public void testChangeBeforeFirstPoll() throws Exception {
+		execute("create table SETTINGS_CHANGES (ID bigint auto_increment "
+				+ "primary key, NAME varchar(255) not null, "
+				+ "NODE varchar(64) not null, CREATED timestamp not null)");
+		try {
+			insertChange(1, "first.port");
+			MySqlSettingsStorage node = new MySqlSettingsStorage(dataSource);
+			JdbcInvalidationBus bus = new JdbcInvalidationBus(dataSource);
+			node.setInvalidationBus(bus);
+			SampleNamespaceSettings.First first = new SampleNamespaceSettings.First();
+			node.register(first);
+			// changed by other node after load, before the first poll
+			execute("update SETTINGS set VALUE = '9' where NAME = 'first.port'");
+			insertChange(2, "first.port");
+			assertEquals(1, bus.poll());
+			assertEquals(9, first.port);
+		} finally {
+			execute("drop table SETTINGS_CHANGES");
+		}
+	}
+
+	private void insertChange(long id, String name) throws Exception {
+		execute("insert into SETTINGS_CHANGES (ID, NAME, NODE, CREATED) "
+				+ "values (" + id + ", '" + name + "', 'other', "
+				+ "current_timestamp)");
+	}
+
+	@Test
+	public void testInvalidationGaps() throws Exception {
+		execute("create table SETTINGS_CHANGES (ID bigint auto_increment "
+				+ "primary key, NAME varchar(255) not null, "
+				+ "NODE varchar(64) not null, CREATED timestamp not null)");
+		try {
+			JdbcInvalidationBus bus = new JdbcInvalidationBus(dataSource);
+			final List<String> delivered = new ArrayList<String>();
+			bus.subscribe(new InvalidationListener() {
+				@Override
+				public void keysChanged(Collection<String> keys) {
+					delivered.addAll(keys);
+				}
+			});
+			assertEquals(0, bus.poll());
+
+			// record 1 is committed after record 2
+			insertChange(2, "second");
+			assertEquals(1, bus.poll());
+			insertChange(1, "first");
+			assertEquals(1, bus.poll());
+			assertEquals(0, bus.poll());
+			insertChange(3, "third");
+			assertEquals(1, bus.poll());
+			assertEquals(Arrays.asList("second", "first", "third"), delivered);
+
+			// gap is not waited for after timeout
+			insertChange(5, "fifth");
+			assertEquals(1, bus.poll());
+			bus.setGapTimeout(0);
+			insertChange(4, "fourth");
+			assertEquals(0, bus.poll());
+		} finally {
+			execute("drop table SETTINGS_CHANGES");
+		}
+	}
+
+	@Test
+	public void testInProcessInvalidation() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		final AtomicInteger reloads = new AtomicInteger();
+		MySqlSettingsStorage writer = new MySqlSettingsStorage(dataSource) {
+			@Override
+			public void reload(Collection<String> keys)
+					throws SettingsException {
+				reloads.incrementAndGet();
+				super.reload(keys);
+			}
+		};
+		writer.setInvalidationBus(bus);
+		CachingSettingsStorage reader = new CachingSettingsStorage(
+				new MySqlSettingsStorage(dataSource), 1, TimeUnit.HOURS);
+		reader.setInvalidationBus(bus);
+
+		SampleNamespaceSettings.First cached = new SampleNamespaceSettings.First();
+		reader.register(cached);
+		SampleNamespaceSettings.First written = new SampleNamespaceSettings.First();
+		writer.load(written);
+		written.value = "changed";
+		writer.saveChanged(written);
+		assertEquals("changed", cached.value);
+		// own keys are not reloaded by writer
+		assertEquals(0, reloads.get());
+
+		reader.setInvalidationBus(null);
+		written.value = "changed again";
+		writer.saveChanged(written);
+		assertEquals("changed", cached.value);
+	}
+
+	@Test
+	public void testWriteBehind() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.setWriteBehind(true);
+		storage.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+		SampleNamespaceSettings.First settings = new SampleNamespaceSettings.First();
+		storage.load(settings);
+		long trips = metrics.getRoundTrips();
+		for (int i = 0; i < 100; i++) {
+			settings.port = i;
+			storage.saveChanged(settings);
+		}
+		// saves are coalesced in queue
+		assertEquals(trips, metrics.getRoundTrips());
+		assertEquals("1", select("first.port"));
+		assertEquals(1, metrics.getWriteQueueDepth());
+
+		// loads and reads see queued values
+		SampleNamespaceSettings.First other = new SampleNamespaceSettings.First();
+		storage.load(other);
+		assertEquals(99, other.port);
+		assertEquals("99", storage.readValues(Arrays.asList("first.port"))
+				.get("first.port"));
+
+		storage.flush();
+		assertEquals("99", select("first.port"));
+		assertEquals(1, metrics.getCount(Operation.FLUSH));
+		assertEquals(0, metrics.getWriteQueueDepth());
+
+		// full queue is flushed at once to make room
+		storage.close();
+		storage.setWriteBehindCapacity(1);
+		SampleNamespaceSettings.Second second = new SampleNamespaceSettings.Second();
+		second.value = "queued";
+		storage.save(second);
+		settings.port = 7;
+		storage.saveChanged(settings);
+		storage.close();
+		assertEquals(3, metrics.getCount(Operation.FLUSH));
+		assertEquals("queued", select("second.value"));
+		assertEquals("7", select("first.port"));
+	}
+
+	@Test
+	public void testFailedClose() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.setWriteBehind(true);
+		storage.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+		SampleNamespaceSettings.First settings = new SampleNamespaceSettings.First();
+		storage.load(settings);
+		settings.port = 2;
+		storage.saveChanged(settings);
+		execute("alter table SETTINGS rename to SETTINGS_OFF");
+		try {
+			storage.close();
+			fail();
+		} catch (SettingsException se) {
+			// queue is kept
+		} finally {
+			execute("alter table SETTINGS_OFF rename to SETTINGS");
+		}
+		settings.port = 3;
+		storage.saveChanged(settings);
+		assertEquals("1", select("first.port"));
+		storage.close();
+		assertEquals("3", select("first.port"));
+	}
+
+	@Test
+	public void testUnwritableValue() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		storage.setWriteBehind(true);
+		storage.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+		SampleNamespaceSettings.First settings = new SampleNamespaceSettings.First();
+		storage.load(settings);
+		SampleNamespaceSettings.Second second = new SampleNamespaceSettings.Second();
+		storage.load(second);
+		char[] tooLong = new char[5000];
+		Arrays.fill(tooLong, 'x');
+		second.value = new String(tooLong);
+		storage.save(second);
+		settings.port = 2;
+		storage.saveChanged(settings);
+
+		// other values are written, too long one is dropped
+		storage.flush();
+		assertEquals("2", select("first.port"));
+		assertEquals("second value", select("second.value"));
+
+		// alone it doesn't block the queue too
+		storage.save(second);
+		storage.flush();
+		settings.port = 3;
+		storage.saveChanged(settings);
+		storage.close();
+		assertEquals("3", select("first.port"));
+		assertEquals("second value", select("second.value"));
+	}
+
+	@Test
+	public void testLoadAll() throws Exception {
+		MySqlSettingsStorage storage = new MySqlSettingsStorage(dataSource);
+		List<Class<?>> loaded = storage.loadAll();
+		assertEquals(Arrays.<Class<?>>asList(SampleIndexedSettings.class,
+				SampleIndexedSettings.Nested.class), loaded);
+		assertEquals("8080", select("INDEXED_PORT"));
+		assertEquals("30", select("indexed.TIMEOUT"));
+
+		execute("update SETTINGS set VALUE = '9090' where NAME = 'INDEXED_PORT'");
+		execute("update SETTINGS set VALUE = '60' where NAME = 'indexed.TIMEOUT'");
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+		connections.set(0);
+		storage.loadAll();
+		assertEquals(9090, SampleIndexedSettings.INDEXED_PORT);
+		assertEquals(60, SampleIndexedSettings.Nested.TIMEOUT);
+		// all classes are read by one query
+		assertEquals(1, metrics.getRoundTrips());
+		assertEquals(1, connections.get());
+		assertEquals(2, metrics.getCount(Operation.LOAD));
+	}
+}
@@ -0,0 +1,231 @@
+package org.rspanov.commons.settings;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspanov.commons.settings.dialect.H2Dialect;
+import org.rspanov.commons.settings.metrics.HistogramSettingsMetrics;
+
+/**
+ * OracleSettingsStorage test against H2 database in Oracle mode, value
+ * column has not default name
+ *
+ * @author rspanov
+ */
+public class OracleSettingsStorageTest {
+
+	private JdbcDataSource h2;
+
+	@Before
+	public void setUp() throws Exception {
+		h2 = new JdbcDataSource();
+		h2.setURL("jdbc:h2:mem:oracle;MODE=Oracle;DB_CLOSE_DELAY=-1");
+		execute("create table SETTINGS (NAME varchar2(255) primary key, "
+				+ "SETTING_VALUE varchar2(4000), DESCRIPTION varchar2(4000))");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		execute("drop table SETTINGS");
+	}
+
+	private void execute(String sql) throws Exception {
+		Connection conn = h2.getConnection();
+		try {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private String select(String name) throws Exception {
+		return select("SETTING_VALUE", name);
+	}
+
+	private String select(String column, String name) throws Exception {
+		Connection conn = h2.getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement("select " + column
+					+ " from SETTINGS where NAME = ?");
+			try {
+				stmt.setString(1, name);
+				ResultSet rs = stmt.executeQuery();
+				try {
+					return rs.next() ? rs.getString(1) : null;
+				} finally {
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private OracleSettingsStorage storage() throws Exception {
+		OracleSettingsStorage storage = new OracleSettingsStorage(h2);
+		storage.setValueFiled("SETTING_VALUE");
+		return storage;
+	}
+
+	@Test
+	public void testLoadSave() throws Exception {
+		OracleSettingsStorage storage = storage();
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		assertEquals("Test string", select("sampleString"));
+
+		execute("update SETTINGS set SETTING_VALUE = '777' "
+				+ "where NAME = 'sampleLong'");
+		storage.syncField(SampleObjectSettings.class
+				.getDeclaredField("sampleLong"), settings);
+		assertEquals(777, settings.getSampleLong());
+
+		settings.setSampleInt(42);
+		storage.save(settings);
+		assertEquals("42", select("sampleInt"));
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		OracleSettingsStorage storage = storage();
+		storage.load(new SampleNamespaceSettings.First());
+		execute("update SETTINGS set SETTING_VALUE = '2' "
+				+ "where NAME = 'first.port'");
+
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+		SampleNamespaceSettings.First first = new SampleNamespaceSettings.First();
+		storage.load(first);
+		assertEquals(2, first.port);
+		assertEquals(1, metrics.getRoundTrips());
+	}
+
+	@Test
+	public void testReadValuesOverInListLimit() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 2500; i++) {
+			names.add("setting" + i);
+		}
+		execute("insert into SETTINGS (NAME, SETTING_VALUE) "
+				+ "select 'setting' || X, 'value' || X "
+				+ "from system_range(0, 2499)");
+		OracleSettingsStorage storage = storage();
+		HistogramSettingsMetrics metrics = new HistogramSettingsMetrics();
+		storage.setMetrics(metrics);
+		Map<String, String> values = storage.readValues(names);
+		assertEquals(2500, values.size());
+		assertEquals("value1234", values.get("setting1234"));
+		assertEquals(3, metrics.getRoundTrips());
+	}
+
+	/*
+	 * invoke method of target, proxies don't wrap its exceptions
+	 */
+	private static Object invoke(Object target, Method method, Object[] args)
+			throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+	}
+
+	@Test
+	public void testInListLimitNotPowerOfTwo() throws Exception {
+		final List<String> queries = new ArrayList<String>();
+		DataSource dataSource = (DataSource) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { DataSource.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						Object result = OracleSettingsStorageTest.invoke(h2,
+								method, args);
+						if (!method.getName().equals("getConnection")) {
+							return result;
+						}
+						final Connection conn = (Connection) result;
+						return Proxy.newProxyInstance(getClass()
+								.getClassLoader(),
+								new Class<?>[] { Connection.class },
+								new InvocationHandler() {
+									@Override
+									public Object invoke(Object proxy,
+											Method method, Object[] args)
+											throws Throwable {
+										if (method.getName().equals(
+												"prepareStatement")) {
+											queries.add((String) args[0]);
+										}
+										return OracleSettingsStorageTest
+												.invoke(conn, method, args);
+									}
+								});
+					}
+				});
+		JdbcSettingsStorage storage = new JdbcSettingsStorage(dataSource,
+				new H2Dialect() {
+					@Override
+					public int getMaxInListSize() {
+						return 5;
+					}
+				});
+		storage.setValueFiled("SETTING_VALUE");
+		execute("insert into SETTINGS (NAME, SETTING_VALUE) "
+				+ "select 'setting' || X, 'value' || X "
+				+ "from system_range(0, 6)");
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 7; i++) {
+			names.add("setting" + i);
+		}
+		Map<String, String> values = storage.readValues(names);
+		assertEquals(7, values.size());
+		assertEquals(2, queries.size());
+		for (String query : queries) {
+			int params = query.length() - query.replace("?", "").length();
+			assertTrue(query, params <= 5);
+		}
+	}
+
+	@Test
+	public void testH2Dialect() throws Exception {
+		JdbcSettingsStorage storage = new JdbcSettingsStorage(h2,
+				new H2Dialect());
+		storage.setValueFiled("SETTING_VALUE");
+		SampleObjectSettings settings = new SampleObjectSettings();
+		storage.load(settings);
+		settings.setSampleString("changed");
+		storage.save(settings);
+		assertEquals("changed", select("sampleString"));
+
+		// description edited in database is kept
+		execute("update SETTINGS set DESCRIPTION = 'edited' "
+				+ "where NAME = 'sampleString'");
+		settings.setSampleString("changed again");
+		storage.save(settings);
+		assertEquals("changed again", select("sampleString"));
+		assertEquals("edited", select("DESCRIPTION", "sampleString"));
+	}
+}
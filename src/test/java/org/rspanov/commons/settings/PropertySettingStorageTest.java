@@ -1,12 +1,18 @@
 package org.rspanov.commons.settings;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Properties;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
 
 /**
  * 
@@ -90,4 +96,186 @@ public class PropertySettingStorageTest {
 		assertEquals(SampleEnum.THREE, changedSettings.getSampleEnum());
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testWatch() throws Exception {
+		File f = File.createTempFile("watch-settings", ".properties");
+		f.delete();
+		PropertySettingStorage settingsStorage = new PropertySettingStorage(
+				f.getPath());
+		settingsStorage.setWatchInterval(50);
+		try {
+			SampleObjectSettings settings = new SampleObjectSettings();
+			settingsStorage.register(settings);
+			settingsStorage.startWatching();
+			assertTrue(settingsStorage.isWatching());
+
+			Properties props = new Properties();
+			FileReader fr = new FileReader(f);
+			try {
+				props.load(fr);
+			} finally {
+				fr.close();
+			}
+			props.setProperty("sampleString", "Watched string");
+			props.setProperty("sampleInt", "12345");
+			FileWriter fw = new FileWriter(f);
+			try {
+				props.store(fw, "");
+			} finally {
+				fw.close();
+			}
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (settings.getSampleInt() != 12345
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(12345, settings.getSampleInt());
+			assertEquals("Watched string", settings.getSampleString());
+		} finally {
+			settingsStorage.stopWatching();
+			f.delete();
+		}
+		assertFalse(settingsStorage.isWatching());
+	}
+
+	@Test
+	public void testDelayedWrite() throws Exception {
+		File dir = File.createTempFile("delayed-settings", "");
+		dir.delete();
+		dir.mkdir();
+		File f = new File(dir, "settings.properties");
+		PropertySettingStorage settingsStorage = new PropertySettingStorage(
+				f.getPath());
+		settingsStorage.setWriteDelay(60000);
+		try {
+			SampleObjectSettings settings = new SampleObjectSettings();
+			settingsStorage.load(settings);
+			assertFalse(f.exists());
+
+			settings.setSampleInt(1);
+			settingsStorage.save(settings);
+			settings.setSampleInt(2);
+			settingsStorage.save(settings);
+
+			// unsaved changes are visible through the storage
+			SampleObjectSettings loaded = new SampleObjectSettings();
+			settingsStorage.load(loaded);
+			assertEquals(2, loaded.getSampleInt());
+			assertFalse(f.exists());
+
+			settingsStorage.flush();
+			SampleObjectSettings written = new SampleObjectSettings();
+			new PropertySettingStorage(f.getPath()).load(written);
+			assertEquals(2, written.getSampleInt());
+			// no temporary files are left
+			assertEquals(1, dir.list().length);
+
+			// changes are written before charset is changed
+			settings.setSampleInt(3);
+			settingsStorage.save(settings);
+			settingsStorage.setCharset(StandardCharsets.ISO_8859_1);
+			written = new SampleObjectSettings();
+			new PropertySettingStorage(f.getPath()).load(written);
+			assertEquals(3, written.getSampleInt());
+		} finally {
+			settingsStorage.close();
+			f.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testUnmappableCharacters() throws Exception {
+		File f = File.createTempFile("charset-settings", ".properties");
+		try {
+			PropertySettingStorage latin = new PropertySettingStorage(
+					f.getPath());
+			latin.setCharset(StandardCharsets.ISO_8859_1);
+			SampleObjectSettings settings = new SampleObjectSettings();
+			settings.setSampleString("\u4e2d\u00e9");
+			latin.save(settings);
+			// written as escapes, not as '?'
+			String text = new String(Files.readAllBytes(f.toPath()),
+					StandardCharsets.ISO_8859_1);
+			assertTrue(text, text.contains("\\u4E2D"));
+			SampleObjectSettings loaded = new SampleObjectSettings();
+			new PropertySettingStorage(f.getPath()).load(loaded);
+			assertEquals("\u4e2d\u00e9", loaded.getSampleString());
+
+			PropertySettingStorage cyrillic = new PropertySettingStorage(
+					f.getPath());
+			cyrillic.setCharset(Charset.forName("windows-1251"));
+			try {
+				cyrillic.save(settings);
+				fail();
+			} catch (SettingsException se) {
+				// the file is kept
+			}
+			loaded = new SampleObjectSettings();
+			new PropertySettingStorage(f.getPath()).load(loaded);
+			assertEquals("\u4e2d\u00e9", loaded.getSampleString());
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		File f = File.createTempFile("namespaces", ".properties");
+		f.delete();
+		try {
+			PropertySettingStorage storage = new PropertySettingStorage(
+					f.getPath());
+			SampleNamespaceSettings.First first = new SampleNamespaceSettings.First();
+			SampleNamespaceSettings.Second second = new SampleNamespaceSettings.Second();
+			storage.load(first);
+			storage.load(second);
+			first.value = "changed";
+			storage.save(first);
+
+			Properties props = new Properties();
+			FileReader fr = new FileReader(f);
+			try {
+				props.load(fr);
+			} finally {
+				fr.close();
+			}
+			assertEquals("changed", props.getProperty("first.value"));
+			assertEquals("1", props.getProperty("first.port"));
+			assertEquals("second value", props.getProperty("second.value"));
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testHandles() throws Exception {
+		File f = File.createTempFile("handles", ".properties");
+		f.delete();
+		try {
+			PropertySettingStorage storage = new PropertySettingStorage(
+					f.getPath());
+			SampleHandleSettings settings = new SampleHandleSettings();
+			storage.load(settings);
+			try {
+				settings.sampleString.set(null);
+				fail();
+			} catch (IllegalArgumentException iae) {
+				// null is never written as value of handle
+			}
+			settings.sampleString.set("remote");
+			settings.sampleEnum.set(SampleEnum.THREE);
+			storage.save(settings);
+
+			SampleHandleSettings loaded = new SampleHandleSettings();
+			new PropertySettingStorage(f.getPath()).load(loaded);
+			assertEquals("remote", loaded.sampleString.get());
+			assertEquals(SampleEnum.THREE, loaded.sampleEnum.get());
+			assertEquals(8080, loaded.sampleInt.get());
+		} finally {
+			f.delete();
+		}
+	}
+}
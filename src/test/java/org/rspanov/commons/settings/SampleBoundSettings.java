@@ -0,0 +1,21 @@
+package org.rspanov.commons.settings;
+
+import org.rspanov.commons.settings.ann.Setting;
+
+/**
+ * Settings with hand-written binder, the private field is not bound
+ *
+ * @author rspanov
+ */
+public class SampleBoundSettings {
+
+	@Setting(description = "sample of bound int")
+	int boundInt = 1;
+
+	@Setting(description = "sample of private string")
+	private String privateString = "private";
+
+	public String getPrivateString() {
+		return privateString;
+	}
+}
@@ -0,0 +1,28 @@
+package org.rspanov.commons.settings;
+
+/**
+ * Binder as it is generated by the processor, counts its calls
+ *
+ * @author rspanov
+ */
+public final class SampleBoundSettings_SettingsBinder implements SettingsBinder {
+
+	static int calls;
+
+	@Override
+	public String[] names() {
+		return new String[]{"boundInt"};
+	}
+
+	@Override
+	public void set(int index, Object o, String value) throws Exception {
+		calls++;
+		((SampleBoundSettings) o).boundInt = Integer.parseInt(value);
+	}
+
+	@Override
+	public Object get(int index, Object o) {
+		calls++;
+		return ((SampleBoundSettings) o).boundInt;
+	}
+}
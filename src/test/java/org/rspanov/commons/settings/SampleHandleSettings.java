@@ -0,0 +1,31 @@
+package org.rspanov.commons.settings;
+
+import org.rspanov.commons.settings.ann.Setting;
+
+/**
+ * Settings held by typed handles
+ *
+ * @author rspanov
+ */
+public class SampleHandleSettings {
+
+	@Setting(description = "sample of int handle")
+	public final IntSetting sampleInt = new IntSetting(8080);
+
+	@Setting(description = "sample of long handle")
+	public final LongSetting sampleLong = new LongSetting(100L);
+
+	@Setting(description = "sample of double handle")
+	public final DoubleSetting sampleDouble = new DoubleSetting(0.5);
+
+	@Setting(description = "sample of boolean handle")
+	public final BooleanSetting sampleBoolean = new BooleanSetting(true);
+
+	@Setting(description = "sample of string handle")
+	public final RefSetting<String> sampleString = new RefSetting<String>(
+			String.class, "localhost");
+
+	@Setting(description = "sample of enum handle")
+	public final RefSetting<SampleEnum> sampleEnum = new RefSetting<SampleEnum>(
+			SampleEnum.class, SampleEnum.ONE);
+}
@@ -0,0 +1,25 @@
+package org.rspanov.commons.settings;
+
+import org.rspanov.commons.settings.ann.Setting;
+import org.rspanov.commons.settings.ann.SettingsNamespace;
+
+/**
+ * Settings classes listed in test settings index
+ *
+ * @author rspanov
+ */
+public class SampleIndexedSettings {
+
+	@Setting(description = "indexed host")
+	public static volatile String INDEXED_HOST = "localhost";
+
+	@Setting(description = "indexed port")
+	public static volatile int INDEXED_PORT = 8080;
+
+	@SettingsNamespace("indexed")
+	public static class Nested {
+
+		@Setting(description = "indexed timeout")
+		public static volatile long TIMEOUT = 30;
+	}
+}
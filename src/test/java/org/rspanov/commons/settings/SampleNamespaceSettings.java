@@ -0,0 +1,29 @@
+package org.rspanov.commons.settings;
+
+import org.rspanov.commons.settings.ann.Setting;
+import org.rspanov.commons.settings.ann.SettingsNamespace;
+
+/**
+ * Settings classes with the same field names in different namespaces
+ *
+ * @author rspanov
+ */
+public class SampleNamespaceSettings {
+
+	@SettingsNamespace("first")
+	public static class First {
+
+		@Setting(description = "value of first")
+		public String value = "first value";
+
+		@Setting(description = "port of first")
+		public int port = 1;
+	}
+
+	@SettingsNamespace("second")
+	public static class Second {
+
+		@Setting(description = "value of second")
+		public String value = "second value";
+	}
+}
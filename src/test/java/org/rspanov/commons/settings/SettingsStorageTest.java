@@ -0,0 +1,309 @@
+package org.rspanov.commons.settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import org.junit.Test;
+import org.rspanov.commons.settings.exceptions.SettingsException;
+import org.rspanov.commons.settings.exceptions.SettingsExceptionType;
+
+/**
+ * Tests of in-memory operations with settings
+ *
+ * @author rspanov
+ */
+public class SettingsStorageTest {
+
+	@Test
+	public void testSettingsList() throws Exception {
+		SampleObjectSettings settings = new SampleObjectSettings();
+		List<SettingListElement> list = SettingsStorage
+				.getSettingsList(settings);
+		assertEquals(9, list.size());
+		for (SettingListElement element : list) {
+			if (element.getSettingName().equals("sampleInt")) {
+				element.setSettingValue("77");
+			}
+		}
+		SettingsStorage.setSettingsList(settings, list);
+		assertEquals(77, settings.getSampleInt());
+
+		list.remove(0);
+		try {
+			SettingsStorage.setSettingsList(settings, list);
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.OTHERS, se.getExceptionType());
+		}
+	}
+
+	@Test
+	public void testSingleSetting() throws Exception {
+		SampleObjectSettings settings = new SampleObjectSettings();
+		SettingsStorage.setSetting(settings, "sampleEnum", "THREE");
+		assertEquals(SampleEnum.THREE, settings.getSampleEnum());
+		assertEquals("THREE", SettingsStorage.getSetting(settings, "sampleEnum"));
+		assertEquals("100", SettingsStorage.getSetting(settings,
+				"sampleAtomicLong"));
+
+		SettingsStorage.setSetting(SampleStaticSettings.class,
+				"SAMPLE_NULL_STRING", "static");
+		assertEquals("static", SampleStaticSettings.SAMPLE_NULL_STRING);
+		SettingsStorage.setSetting(SampleStaticSettings.class,
+				"SAMPLE_NULL_STRING", null);
+		assertNull(SettingsStorage.getSetting(SampleStaticSettings.class,
+				"SAMPLE_NULL_STRING"));
+
+		try {
+			// instance setting can't be reached through class
+			SettingsStorage.getSetting(SampleStaticSettings.class,
+					"SAMPLE_DYN_STANG");
+			fail();
+		} catch (SettingsException se) {
+			assertEquals("SAMPLE_DYN_STANG", se.getFieldName());
+		}
+		try {
+			SettingsStorage.setSetting(settings, "sampleInt", "not a number");
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.INVALID_VALUE_EXCEPTION,
+					se.getExceptionType());
+		}
+	}
+
+	@Test
+	public void testBinder() throws Exception {
+		SampleBoundSettings settings = new SampleBoundSettings();
+		SettingsStorage.setSetting(settings, "boundInt", "5");
+		SettingsStorage.setSetting(settings, "privateString", "changed");
+		assertEquals(5, settings.boundInt);
+		assertEquals("changed", settings.getPrivateString());
+		assertEquals("5", SettingsStorage.getSetting(settings, "boundInt"));
+		assertEquals(2, SampleBoundSettings_SettingsBinder.calls);
+	}
+
+	@Test
+	public void testLoadAll() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		SettingsStorage storage = new SettingsStorage() {
+			@Override
+			protected void syncFields(List<Field> fields, Object o)
+					throws SettingsException {
+				int now = running.incrementAndGet();
+				while (now > maxRunning.get()) {
+					maxRunning.set(now);
+				}
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+				if (fields.isEmpty()) {
+					throw new SettingsException("no static settings",
+							SettingsExceptionType.OTHERS);
+				}
+			}
+
+			@Override
+			public void syncField(Field field, Object o) {
+			}
+
+			@Override
+			public void saveValue(Field field, Object o) {
+			}
+		};
+		storage.setMaxParallelLoads(2);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Future<Void> future = storage.loadAll(executor,
+					SampleStaticSettings.class, SampleNotNullSettings.class,
+					SampleObjectSettings.class, SampleBoundSettings.class,
+					SampleStaticSettings.class);
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException ee) {
+				// classes without static settings are failed
+				SettingsException se = (SettingsException) ee.getCause();
+				assertEquals(1, se.getSuppressed().length);
+			}
+			assertTrue(future.isDone());
+			assertEquals(2, maxRunning.get());
+
+			storage.loadAsync(SampleStaticSettings.class, executor)
+					.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testLoadAllCancel() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		SettingsStorage storage = new SettingsStorage() {
+			@Override
+			protected void syncFields(List<Field> fields, Object o)
+					throws SettingsException {
+				if (loads.incrementAndGet() > 1) {
+					return;
+				}
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException ie) {
+					interrupted.countDown();
+				}
+			}
+
+			@Override
+			public void syncField(Field field, Object o) {
+			}
+
+			@Override
+			public void saveValue(Field field, Object o) {
+			}
+		};
+		storage.setMaxParallelLoads(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Void> future = storage.loadAll(executor,
+					SampleStaticSettings.class, SampleNotNullSettings.class,
+					SampleStaticSettings.class);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			assertTrue(future.cancel(true));
+			assertFalse(future.cancel(true));
+			assertTrue(future.isCancelled());
+			assertTrue(future.isDone());
+			try {
+				future.get();
+				fail();
+			} catch (CancellationException ce) {
+				// expected
+			}
+			try {
+				future.get(1, TimeUnit.SECONDS);
+				fail();
+			} catch (CancellationException ce) {
+				// expected
+			}
+			// running load is interrupted, queued ones are never started
+			assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+			storage.loadAsync(SampleStaticSettings.class, executor)
+					.get(10, TimeUnit.SECONDS);
+			assertEquals(2, loads.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testHandles() throws Exception {
+		SampleHandleSettings settings = new SampleHandleSettings();
+		IntSetting handle = settings.sampleInt;
+		SettingsStorage.setSetting(settings, "sampleInt", "8081");
+		SettingsStorage.setSetting(settings, "sampleLong", "4200000000");
+		SettingsStorage.setSetting(settings, "sampleDouble", "2.5");
+		SettingsStorage.setSetting(settings, "sampleBoolean", "false");
+		SettingsStorage.setSetting(settings, "sampleString", "remote");
+		SettingsStorage.setSetting(settings, "sampleEnum", "TWO");
+
+		// handles are updated in place
+		assertTrue(handle == settings.sampleInt);
+		assertEquals(8081, settings.sampleInt.get());
+		assertEquals(4200000000L, settings.sampleLong.get());
+		assertEquals(2.5, settings.sampleDouble.get());
+		assertFalse(settings.sampleBoolean.get());
+		assertEquals("remote", settings.sampleString.get());
+		assertEquals(SampleEnum.TWO, settings.sampleEnum.get());
+		assertEquals("8081", SettingsStorage.getSetting(settings, "sampleInt"));
+		assertEquals("TWO", SettingsStorage.getSetting(settings, "sampleEnum"));
+
+		try {
+			SettingsStorage.setSetting(settings, "sampleEnum", "FOUR");
+			fail();
+		} catch (SettingsException se) {
+			assertEquals(SettingsExceptionType.INVALID_VALUE_EXCEPTION,
+					se.getExceptionType());
+		}
+		assertEquals(SampleEnum.TWO, settings.sampleEnum.get());
+	}
+
+	/*
+	 * loads SampleObjectSettings itself, other classes are shared
+	 */
+	private static final class IsolatingClassLoader extends ClassLoader {
+
+		private IsolatingClassLoader() {
+			super(SettingsStorageTest.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			if (!name.equals(SampleObjectSettings.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (this) {
+				Class<?> cl = findLoadedClass(name);
+				if (cl != null) {
+					return cl;
+				}
+				try {
+					InputStream in = getParent().getResourceAsStream(
+							name.replace('.', '/') + ".class");
+					try {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						byte[] buf = new byte[4096];
+						int n;
+						while ((n = in.read(buf)) > 0) {
+							out.write(buf, 0, n);
+						}
+						byte[] bytes = out.toByteArray();
+						return defineClass(name, bytes, 0, bytes.length);
+					} finally {
+						in.close();
+					}
+				} catch (IOException ioe) {
+					throw new ClassNotFoundException(name, ioe);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testModelDoesNotPinClass() throws Exception {
+		ClassLoader loader = new IsolatingClassLoader();
+		Class<?> cl = loader.loadClass(SampleObjectSettings.class.getName());
+		assertTrue(SettingsClassModel.of(cl).fields(
+				cl.getDeclaredConstructor().newInstance()).size() > 0);
+		WeakReference<Class<?>> ref = new WeakReference<Class<?>>(cl);
+		cl = null;
+		loader = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(ref.get());
+	}
+}